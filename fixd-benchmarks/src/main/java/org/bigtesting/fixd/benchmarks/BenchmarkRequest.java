@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.simpleframework.http.ContentType;
+import org.simpleframework.http.Cookie;
+import org.simpleframework.http.Path;
+import org.simpleframework.http.RequestWrapper;
+import org.simpleframework.http.parse.PathParser;
+
+/**
+ * A request that exists only in memory, with no headers and no body, 
+ * so that the fixd request pipeline can be measured without the 
+ * cost of parsing a request off the wire.
+ * 
+ * @author Luis Antunes
+ */
+public class BenchmarkRequest extends RequestWrapper {
+
+    private static final byte[] NO_CONTENT = new byte[0];
+    
+    private final String method;
+    
+    private final String target;
+    
+    public BenchmarkRequest(String method, String target) {
+        super(null);
+        this.method = method;
+        this.target = target;
+    }
+    
+    @Override
+    public String getMethod() {
+        return method;
+    }
+    
+    @Override
+    public String getTarget() {
+        return target;
+    }
+    
+    @Override
+    public Path getPath() {
+        return new PathParser(target);
+    }
+    
+    @Override
+    public CharSequence getHeader() {
+        return method + " " + target + " HTTP/1.1\r\n\r\n";
+    }
+    
+    @Override
+    public String getValue(String name) {
+        return null;
+    }
+    
+    @Override
+    public String getParameter(String name) {
+        return null;
+    }
+    
+    @Override
+    public ContentType getContentType() {
+        return null;
+    }
+    
+    @Override
+    public long getContentLength() {
+        return 0;
+    }
+    
+    @Override
+    public Cookie getCookie(String name) {
+        return null;
+    }
+    
+    @Override
+    public Object getAttribute(Object key) {
+        return null;
+    }
+    
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(NO_CONTENT);
+    }
+}
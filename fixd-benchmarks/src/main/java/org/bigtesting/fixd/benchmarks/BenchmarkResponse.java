@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.simpleframework.http.ResponseWrapper;
+import org.simpleframework.http.Status;
+
+/**
+ * A response that discards everything written to it, and which can 
+ * be re-used for any number of requests.
+ * 
+ * @author Luis Antunes
+ */
+public class BenchmarkResponse extends ResponseWrapper {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {}
+        @Override
+        public void write(byte[] b, int off, int len) {}
+    };
+    
+    private static final WritableByteChannel DISCARD_CHANNEL = new WritableByteChannel() {
+        public int write(ByteBuffer src) {
+            int written = src.remaining();
+            src.position(src.limit());
+            return written;
+        }
+        public boolean isOpen() {
+            return true;
+        }
+        public void close() {}
+    };
+    
+    /* bodies close the stream once written, which must not stick */
+    private final PrintStream printStream = new PrintStream(DISCARD) {
+        @Override
+        public void close() {
+            flush();
+        }
+    };
+    
+    private int code = Status.OK.code;
+    
+    public BenchmarkResponse() {
+        super(null);
+    }
+    
+    @Override
+    public int getCode() {
+        return code;
+    }
+    
+    @Override
+    public void setCode(int code) {
+        this.code = code;
+    }
+    
+    @Override
+    public void setStatus(Status status) {
+        this.code = status.code;
+    }
+    
+    @Override
+    public void setValue(String name, String value) {}
+    
+    @Override
+    public void addValue(String name, String value) {}
+    
+    @Override
+    public void setDate(String name, long date) {}
+    
+    @Override
+    public void setContentLength(long length) {}
+    
+    @Override
+    public void setContentType(String type) {}
+    
+    @Override
+    public OutputStream getOutputStream() {
+        return DISCARD;
+    }
+    
+    @Override
+    public PrintStream getPrintStream() {
+        return printStream;
+    }
+    
+    @Override
+    public WritableByteChannel getByteChannel() {
+        return DISCARD_CHANNEL;
+    }
+    
+    @Override
+    public boolean isCommitted() {
+        return false;
+    }
+    
+    @Override
+    public void commit() {}
+    
+    @Override
+    public void close() {}
+}
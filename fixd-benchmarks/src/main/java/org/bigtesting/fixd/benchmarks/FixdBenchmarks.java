@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the fixd benchmarks. Without arguments, every benchmark is run 
+ * in sample mode with the GC profiler, so that the report has both 
+ * the latency percentiles and the bytes allocated per operation, 
+ * and the results are also written to target/fixd-benchmarks.json 
+ * for comparison with earlier runs. Any arguments are passed on to 
+ * the JMH command line instead.
+ * 
+ * @author Luis Antunes
+ */
+public class FixdBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        
+        if (args.length > 0) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        
+        Options options = new OptionsBuilder()
+                .include("org\\.bigtesting\\.fixd\\..*Benchmark")
+                .mode(Mode.SampleTime)
+                .timeUnit(TimeUnit.NANOSECONDS)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/fixd-benchmarks.json")
+                .build();
+        
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bigtesting.fixd.interpolation.ResponseBodyInterpolator;
+import org.bigtesting.fixd.interpolation.ResponseBodyTemplate;
+import org.bigtesting.fixd.request.HttpRequest;
+import org.bigtesting.fixd.request.impl.SimpleHttpRequest;
+import org.bigtesting.routd.Route;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures interpolating response bodies of various sizes, both 
+ * from the body text, as the public interpolator does, and from 
+ * a template compiled in advance, as handlers do.
+ * 
+ * @author Luis Antunes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpolationBenchmark {
+
+    private static final String SEGMENT = 
+            "Hello :name, your order *[0] is ready. Reply to [email] for help. ";
+    
+    /* the number of times the segment is repeated in the body */
+    @Param({"1", "16", "256"})
+    public int segments;
+    
+    private String body;
+    
+    private ResponseBodyTemplate template;
+    
+    private HttpRequest request;
+    
+    @Setup
+    public void setUp() {
+        
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < segments; i++) {
+            sb.append(SEGMENT);
+        }
+        body = sb.toString();
+        template = ResponseBodyInterpolator.compile(body);
+        request = new SimpleHttpRequest(new BenchmarkRequest("GET", "/users/Tim/orders/42"), 
+                null, new Route("/users/:name/orders/*"), null);
+    }
+    
+    @Benchmark
+    public String interpolate() {
+        
+        return ResponseBodyInterpolator.interpolate(body, request);
+    }
+    
+    @Benchmark
+    public String renderCompiledTemplate() {
+        
+        return template.render(request);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.bigtesting.fixd.Method;
+import org.bigtesting.fixd.ServerFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a full request and response over the loopback interface, 
+ * from a client using a persistent connection to a running server 
+ * fixture.
+ * 
+ * @author Luis Antunes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackBenchmark {
+
+    private static final int PORT = 8089;
+    
+    private ServerFixture server;
+    
+    private URL staticUrl;
+    
+    private URL templateUrl;
+    
+    @Setup
+    public void setUp() throws IOException {
+        
+        server = new ServerFixture(PORT);
+        server.start();
+        server.handle(Method.GET, "/static")
+              .with(200, "text/plain", "Hello World");
+        server.handle(Method.GET, "/name/:name")
+              .with(200, "text/plain", "Hello :name");
+        server.setMaxCapturedRequests(1);
+        
+        staticUrl = new URL("http://localhost:" + PORT + "/static");
+        templateUrl = new URL("http://localhost:" + PORT + "/name/Tim");
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        server.stop();
+    }
+    
+    @State(Scope.Thread)
+    public static class Buffer {
+        final byte[] bytes = new byte[1024];
+    }
+    
+    @Benchmark
+    public int staticBody(Buffer buffer) throws IOException {
+        
+        return get(staticUrl, buffer.bytes);
+    }
+    
+    @Benchmark
+    public int templateBody(Buffer buffer) throws IOException {
+        
+        return get(templateUrl, buffer.bytes);
+    }
+    
+    /*
+     * the body is read fully and the stream closed, so that 
+     * the connection is kept for the next request
+     */
+    private static int get(URL url, byte[] buffer) throws IOException {
+        
+        HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+        InputStream in = connection.getInputStream();
+        try {
+            int total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+            }
+            return total;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bigtesting.fixd.Method;
+import org.bigtesting.fixd.core.RequestHandlerImpl;
+import org.bigtesting.fixd.core.container.FixtureContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of handling a request once it has been parsed, 
+ * from resolving its handler to writing its response. Run it with 
+ * the GC profiler to see the bytes allocated per request, as 
+ * gc.alloc.rate.norm:
+ * <pre>
+ * java -jar target/benchmarks.jar RequestPathBenchmark -prof gc
+ * </pre>
+ * Apart from the record of the captured request, a request for a 
+ * handler with a constant body should allocate next to nothing.
+ * 
+ * @author Luis Antunes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestPathBenchmark {
+
+    private FixtureContainer container;
+    
+    @Setup
+    public void setUp() {
+        
+        container = new FixtureContainer();
+        container.setCapturedRequestLimit(1);
+        
+        container.addHandler((RequestHandlerImpl)new RequestHandlerImpl(container)
+                .with(200, "text/plain", "Hello World"), Method.GET, "/static");
+        container.addHandler((RequestHandlerImpl)new RequestHandlerImpl(container)
+                .with(200, "text/plain", "Hello :name"), Method.GET, "/name/:name");
+    }
+    
+    @TearDown
+    public void tearDown() {
+        container.stop();
+    }
+    
+    @State(Scope.Thread)
+    public static class Requests {
+        
+        final BenchmarkRequest staticRequest = new BenchmarkRequest("GET", "/static");
+        final BenchmarkRequest templateRequest = new BenchmarkRequest("GET", "/name/Tim");
+        final BenchmarkRequest unknownRequest = new BenchmarkRequest("GET", "/unknown");
+        final BenchmarkResponse response = new BenchmarkResponse();
+    }
+    
+    @Benchmark
+    public int staticBody(Requests requests) {
+        
+        container.handle(requests.staticRequest, requests.response);
+        return requests.response.getCode();
+    }
+    
+    @Benchmark
+    public int templateBody(Requests requests) {
+        
+        container.handle(requests.templateRequest, requests.response);
+        return requests.response.getCode();
+    }
+    
+    @Benchmark
+    public int notFound(Requests requests) {
+        
+        container.handle(requests.unknownRequest, requests.response);
+        return requests.response.getCode();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.async;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.bigtesting.fixd.Method;
+import org.bigtesting.fixd.benchmarks.BenchmarkRequest;
+import org.bigtesting.fixd.capture.impl.SimpleCapturedRequest;
+import org.bigtesting.fixd.core.RequestHandlerImpl;
+import org.bigtesting.fixd.core.Upon;
+import org.bigtesting.fixd.core.container.FixtureContainer;
+import org.bigtesting.routd.Route;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures broadcasting a request to the subscribers of a suspended 
+ * handler. Half of the subscribers belong to the handler the request 
+ * is broadcast for, and the other half to another handler. Each 
+ * invocation also takes the broadcast off the queues it was added 
+ * to, as the subscriber tasks would, and optionally gets the body 
+ * each subscriber would be sent.
+ * 
+ * @author Luis Antunes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int subscribers;
+    
+    private AsyncHandler asyncHandler;
+    
+    private ScheduledExecutorService scheduler;
+    
+    private Subscriber[] receivers;
+    
+    private BenchmarkRequest request;
+    
+    private Route route;
+    
+    private Upon upon;
+    
+    private SimpleCapturedRequest captured;
+    
+    @Setup
+    public void setUp() {
+        
+        FixtureContainer container = new FixtureContainer();
+        RequestHandlerImpl handler = new RequestHandlerImpl(container);
+        handler.with(200, "text/plain", "broadcast to [request.path]");
+        RequestHandlerImpl otherHandler = new RequestHandlerImpl(container);
+        container.stop();
+        
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        asyncHandler = new AsyncHandler(Executors.newSingleThreadExecutor(), scheduler);
+        receivers = new Subscriber[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            receivers[i] = new Subscriber(handler);
+            asyncHandler.addSubscriber(receivers[i]);
+            asyncHandler.addSubscriber(new Subscriber(otherHandler));
+        }
+        
+        request = new BenchmarkRequest("POST", "/broadcast");
+        route = new Route("/broadcast");
+        upon = new Upon(Method.POST, "/broadcast", handler);
+        captured = new SimpleCapturedRequest(request);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        asyncHandler.stop();
+        scheduler.shutdown();
+    }
+    
+    @Benchmark
+    public void broadcastToSubscribers() {
+        
+        asyncHandler.broadcastToSubscribers(request, route, upon, captured, null, null);
+        for (Subscriber receiver : receivers) {
+            receiver.getNextBroadcast();
+        }
+    }
+    
+    @Benchmark
+    public void broadcastAndRenderForSubscribers() {
+        
+        asyncHandler.broadcastToSubscribers(request, route, upon, captured, null, null);
+        for (Subscriber receiver : receivers) {
+            receiver.getNextBroadcast().getSharedBody(null, null);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.container;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bigtesting.fixd.benchmarks.BenchmarkRequest;
+import org.bigtesting.fixd.capture.impl.SimpleCapturedRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures capturing requests from several threads at once, 
+ * as happens when a server fixture is under load. 
+ * 
+ * @author Luis Antunes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class CapturedRequestContainerBenchmark {
+
+    @Param({"100", "10000"})
+    public int limit;
+    
+    private CapturedRequestContainer container;
+    
+    @Setup
+    public void setUp() {
+        
+        container = new CapturedRequestContainer();
+        container.setCapturedRequestLimit(limit);
+    }
+    
+    @State(Scope.Thread)
+    public static class Captured {
+        
+        final BenchmarkRequest request = new BenchmarkRequest("GET", "/captured");
+    }
+    
+    @Benchmark
+    public void addCapturedRequest(Captured captured) {
+        
+        container.addCapturedRequest(new SimpleCapturedRequest(captured.request));
+    }
+}
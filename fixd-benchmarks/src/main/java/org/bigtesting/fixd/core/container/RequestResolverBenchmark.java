@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.container;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bigtesting.fixd.Method;
+import org.bigtesting.fixd.benchmarks.BenchmarkRequest;
+import org.bigtesting.fixd.core.RequestHandlerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures resolving a request to its handler when many routes 
+ * are registered. In the mixed layout, half of the routes are 
+ * static, and half have a path parameter. In the siblings layout, 
+ * the routes are static siblings under one path, next to a route 
+ * with a path parameter. The requests resolved are spread over all 
+ * of the routes.
+ * 
+ * @author Luis Antunes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestResolverBenchmark {
+
+    @Param({"10", "100", "1000", "5000"})
+    public int routes;
+    
+    @Param({"mixed", "siblings"})
+    public String layout;
+    
+    private RequestResolver resolver;
+    
+    private BenchmarkRequest[] requests;
+    
+    private int next;
+    
+    @Setup
+    public void setUp() {
+        
+        FixtureContainer container = new FixtureContainer();
+        resolver = new RequestResolver();
+        requests = new BenchmarkRequest[routes];
+        for (int i = 0; i < routes; i++) {
+            RequestHandlerImpl handler = (RequestHandlerImpl)new RequestHandlerImpl(container)
+                    .with(200, "text/plain", "route " + i);
+            if (layout.equals("siblings")) {
+                resolver.addHandler(handler, Method.GET, "/items/lit" + i, null);
+                requests[i] = new BenchmarkRequest("GET", "/items/lit" + i);
+            } else if (i % 2 == 0) {
+                resolver.addHandler(handler, Method.GET, "/static" + i + "/items", null);
+                requests[i] = new BenchmarkRequest("GET", "/static" + i + "/items");
+            } else {
+                resolver.addHandler(handler, Method.GET, "/resource" + i + "/:id", null);
+                requests[i] = new BenchmarkRequest("GET", "/resource" + i + "/" + i);
+            }
+        }
+        if (layout.equals("siblings")) {
+            resolver.addHandler(new RequestHandlerImpl(container), Method.GET, "/items/:id", null);
+        }
+        container.stop();
+    }
+    
+    @Benchmark
+    public ResolvedRequest resolve() {
+        
+        BenchmarkRequest request = requests[next];
+        next = next + 1 == requests.length ? 0 : next + 1;
+        return resolver.resolve(request);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A distribution that the latency of each response is drawn from, 
+ * set with {@link RequestHandler#withLatency(LatencyProfile)}. Other 
+ * distributions can be modelled by extending this class.
+ * 
+ * @author Luis Antunes
+ */
+public abstract class LatencyProfile {
+    
+    /**
+     * @return the latency of the next response, in nanoseconds
+     */
+    public abstract long nextNanos();
+    
+    /**
+     * Every response has the same latency.
+     */
+    public static LatencyProfile fixed(long latency, TimeUnit unit) {
+        
+        final long nanos = unit.toNanos(latency);
+        return new LatencyProfile() {
+            public long nextNanos() {
+                return nanos;
+            }
+        };
+    }
+    
+    /**
+     * Latencies are spread evenly between the given minimum and maximum.
+     */
+    public static LatencyProfile uniform(long min, long max, TimeUnit unit) {
+        
+        final long minNanos = unit.toNanos(min);
+        final long rangeNanos = unit.toNanos(max) - minNanos;
+        return new RandomLatencyProfile() {
+            public long nextNanos() {
+                return minNanos + (long)(random.nextDouble() * rangeNanos);
+            }
+        };
+    }
+    
+    /**
+     * Latencies follow a normal distribution. Negative 
+     * latencies drawn from it are taken as zero.
+     */
+    public static LatencyProfile normal(long mean, long standardDeviation, TimeUnit unit) {
+        
+        final double meanNanos = unit.toNanos(mean);
+        final double deviationNanos = unit.toNanos(standardDeviation);
+        return new RandomLatencyProfile() {
+            public long nextNanos() {
+                return Math.max(0, (long)(meanNanos + random.nextGaussian() * deviationNanos));
+            }
+        };
+    }
+    
+    /**
+     * Latencies follow a log-normal distribution with the given median, 
+     * in which the logarithm of the latency has the given standard 
+     * deviation. The larger the deviation, the longer the tail.
+     */
+    public static LatencyProfile logNormal(long median, final double sigma, TimeUnit unit) {
+        
+        final double mu = Math.log(unit.toNanos(median));
+        return new RandomLatencyProfile() {
+            public long nextNanos() {
+                return (long)Math.exp(mu + random.nextGaussian() * sigma);
+            }
+        };
+    }
+    
+    /**
+     * Latencies follow a Pareto distribution, starting from the given 
+     * minimum. The smaller the shape, the heavier the tail.
+     */
+    public static LatencyProfile pareto(long min, final double shape, TimeUnit unit) {
+        
+        final double minNanos = unit.toNanos(min);
+        return new RandomLatencyProfile() {
+            public long nextNanos() {
+                return (long)(minNanos / Math.pow(1 - random.nextDouble(), 1 / shape));
+            }
+        };
+    }
+    
+    /**
+     * Latencies follow the distribution recorded in the given file, 
+     * which holds the percentile distribution printed by HdrHistogram, 
+     * as plain text or as CSV. Each line gives a value, in the given 
+     * unit, and the fraction of values at or below it; other lines are 
+     * ignored.
+     */
+    public static LatencyProfile empirical(File percentiles, TimeUnit valueUnit) throws IOException {
+        
+        InputStream in = new FileInputStream(percentiles);
+        try {
+            return empirical(in, valueUnit);
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Latencies follow the distribution read from the given stream, 
+     * as described for {@link #empirical(File, TimeUnit)}.
+     */
+    public static LatencyProfile empirical(InputStream percentiles, TimeUnit valueUnit) throws IOException {
+        
+        double nanosPerValue = valueUnit.toNanos(1);
+        List<double[]> points = new ArrayList<double[]>();
+        
+        BufferedReader reader = new BufferedReader(new InputStreamReader(percentiles, "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            String[] columns = line.split("[\\s,]+");
+            if (columns.length < 2) {
+                continue;
+            }
+            try {
+                points.add(new double[] {
+                        Double.parseDouble(columns[0]) * nanosPerValue, 
+                        Double.parseDouble(columns[1])});
+            } catch (NumberFormatException e) {
+                /* a heading */
+            }
+        }
+        
+        if (points.isEmpty()) {
+            throw new IllegalArgumentException("no percentiles found");
+        }
+        
+        final double[] values = new double[points.size()];
+        final double[] fractions = new double[points.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = points.get(i)[0];
+            fractions[i] = points.get(i)[1];
+        }
+        
+        return new RandomLatencyProfile() {
+            public long nextNanos() {
+                
+                /* the latency is interpolated between the percentiles either side */
+                double fraction = random.nextDouble();
+                int upper = firstAtOrAbove(fractions, fraction);
+                if (upper == 0) {
+                    return (long)values[0];
+                }
+                if (upper == values.length) {
+                    return (long)values[values.length - 1];
+                }
+                int lower = upper - 1;
+                double span = fractions[upper] - fractions[lower];
+                double position = span > 0 ? (fraction - fractions[lower]) / span : 1;
+                return (long)(values[lower] + position * (values[upper] - values[lower]));
+            }
+        };
+    }
+    
+    private static int firstAtOrAbove(double[] sorted, double key) {
+        
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    private static abstract class RandomLatencyProfile extends LatencyProfile {
+        
+        /* shared by all the threads drawing latencies from the profile */
+        protected final Random random = new Random();
+    }
+}
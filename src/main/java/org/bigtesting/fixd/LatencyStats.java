@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latencies responses were meant to have, as drawn from their 
+ * handler's {@link LatencyProfile} or set with 
+ * {@link RequestHandler#after(long, TimeUnit)}, and the latencies they
+ * actually had, measured from when the request was handled until the
+ * response started to be sent. Percentiles are taken over the most 
+ * recent responses.
+ * 
+ * @author Luis Antunes
+ */
+public interface LatencyStats {
+
+    /**
+     * @return the number of delayed responses sent so far
+     */
+    long getCount();
+    
+    /**
+     * @param percentile between 0 and 100
+     */
+    long getTargetPercentile(double percentile, TimeUnit unit);
+    
+    /**
+     * @param percentile between 0 and 100
+     */
+    long getActualPercentile(double percentile, TimeUnit unit);
+    
+    /**
+     * @return the most that any response was sent 
+     * later than it was meant to be
+     */
+    long getMaxLag(TimeUnit unit);
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd;
+
+/**
+ * What happens to a broadcast when a subscriber already has as many
+ * broadcasts waiting to be sent as it is allowed.
+ * 
+ * @author Luis Antunes
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The oldest waiting broadcast is dropped to make room.
+     */
+    DROP_OLDEST,
+    
+    /**
+     * The new broadcast is dropped.
+     */
+    DROP_NEWEST,
+    
+    /**
+     * The new broadcast is dropped, and the subscriber is disconnected.
+     */
+    DISCONNECT,
+    
+    /**
+     * All the waiting broadcasts are dropped, so that the subscriber 
+     * is only sent the latest one.
+     */
+    COALESCE
+}
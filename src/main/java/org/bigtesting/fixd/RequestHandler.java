@@ -15,9 +15,11 @@
  */
 package org.bigtesting.fixd;
 
+import java.io.File;
 import java.util.concurrent.TimeUnit;
 
 import org.bigtesting.fixd.request.HttpRequestHandler;
+import org.bigtesting.fixd.request.StreamingHttpRequestHandler;
 import org.bigtesting.fixd.session.SessionHandler;
 
 /**
@@ -31,6 +33,55 @@ public interface RequestHandler {
     RequestHandler with(int statusCode, String contentType, Object entity);
     
     RequestHandler with(HttpRequestHandler customHandler);
+    
+    /**
+     * Responds with a body that the given handler writes as it goes, 
+     * so that a body of any size can be sent without being held in
+     * memory. The handler is run on an async thread.
+     */
+    RequestHandler withStream(int statusCode, String contentType, 
+            StreamingHttpRequestHandler streamingHandler);
+    
+    /**
+     * Responds with the content of the given file, which is read 
+     * each time it is sent.
+     * 
+     * @throws IllegalArgumentException if the file does not exist, 
+     * is a directory, or cannot be read
+     */
+    RequestHandler withFile(File file, String contentType);
+    
+    /**
+     * Responds with a body of the given size, in bytes, consisting of 
+     * the given pattern repeated. The body is generated as it is sent, 
+     * so bodies of any size take no more memory than small ones.
+     */
+    RequestHandler withGeneratedBody(long size, String pattern, String contentType);
+    
+    /**
+     * Responds with a body of the given size, in bytes, consisting of 
+     * pseudo-random bytes generated from the given seed. The same seed 
+     * always generates the same body.
+     */
+    RequestHandler withGeneratedBody(long size, long seed, String contentType);
+    
+    /**
+     * Limits the rate at which the body of a response is sent, 
+     * in bytes per second, as over a slow network.
+     */
+    RequestHandler withMaxThroughput(long bytesPerSecond);
+    
+    /**
+     * Holds back the first byte of a response for the given time,
+     * once the response is ready to be sent.
+     */
+    RequestHandler withTimeToFirstByte(long delay, TimeUnit delayUnit);
+    
+    /**
+     * Holds back each piece of a response that is throttled, after the 
+     * first, by a random time up to the given maximum.
+     */
+    RequestHandler withChunkJitter(long maxJitter, TimeUnit jitterUnit);
 
     RequestHandler withSessionHandler(SessionHandler sessionHandler);
     
@@ -38,6 +89,14 @@ public interface RequestHandler {
     
     RequestHandler after(long delay, TimeUnit delayUnit);
     
+    /**
+     * Delays each response by a latency drawn from the given profile,
+     * rather than by the same delay each time. The latencies drawn, and 
+     * those the responses actually had, can be compared through 
+     * {@link ServerFixture#latencyStats()}.
+     */
+    RequestHandler withLatency(LatencyProfile profile);
+    
     RequestHandler every(long period, TimeUnit periodUnit);
     
     RequestHandler every(long period, TimeUnit periodUnit, int times);
@@ -48,6 +107,38 @@ public interface RequestHandler {
     
     RequestHandler upon(Method method, String resource, String contentType);
     
+    /**
+     * Limits the number of broadcasts that can be waiting to be sent 
+     * to each subscriber. By default, there is no limit.
+     */
+    RequestHandler withMaxPendingBroadcasts(int maxPending, OverflowPolicy policy);
+    
+    /**
+     * Responds with a stream of server-sent events, in which each 
+     * response body is sent as the data of an event. A suspended client 
+     * is sent heartbeat comments while it waits, and a client that 
+     * reconnects with a Last-Event-ID header is first sent the events 
+     * it missed, from those most recently broadcast.
+     */
+    RequestHandler asEventStream();
+    
+    /**
+     * Responds with a stream of server-sent events of the given type.
+     */
+    RequestHandler asEventStream(String eventName);
+    
+    /**
+     * Sets how often a suspended client of an event stream is sent 
+     * a heartbeat comment. The default is every 15 seconds.
+     */
+    RequestHandler withHeartbeat(long period, TimeUnit periodUnit);
+    
+    /**
+     * Sets the number of the most recent events of an event stream 
+     * that are kept for clients that reconnect. The default is 100.
+     */
+    RequestHandler withEventLog(int maxEvents);
+    
     RequestHandler withRedirect(String location);
     
     RequestHandler withRedirect(String location, int statusCode);
@@ -15,19 +15,32 @@
  */
 package org.bigtesting.fixd;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.bigtesting.fixd.capture.CapturePolicy;
+import org.bigtesting.fixd.capture.CaptureQuery;
+import org.bigtesting.fixd.capture.CapturedFrame;
 import org.bigtesting.fixd.capture.CapturedRequest;
+import org.bigtesting.fixd.capture.CapturedRequestPredicate;
 import org.bigtesting.fixd.core.FixdServer;
 import org.bigtesting.fixd.core.RequestHandlerImpl;
 import org.bigtesting.fixd.core.RequestMarshallerImpl;
 import org.bigtesting.fixd.core.RequestUnmarshallerImpl;
 import org.bigtesting.fixd.core.container.FixtureContainer;
+import org.bigtesting.fixd.util.AsyncExecutors;
 import org.bigtesting.fixd.util.LoggingAgent;
 import org.simpleframework.http.core.ContainerServer;
+import org.simpleframework.http.socket.service.RouterContainer;
 import org.simpleframework.transport.Server;
 import org.simpleframework.transport.connect.Connection;
 import org.simpleframework.transport.connect.SocketConnection;
@@ -38,6 +51,9 @@
  */
 public class ServerFixture {
 
+    /* the threads that read and write the frames of WebSocket clients */
+    private static final int WEBSOCKET_THREADS = 2;
+    
     private final int port;
     private final FixtureContainer container;
     
@@ -65,9 +81,23 @@ public ServerFixture(int port, int aysncThreadPoolSize) {
         this.container = new FixtureContainer(aysncThreadPoolSize);
     }
     
+    /**
+     * Constructs a ServerFixture that runs delayed, periodic and suspended
+     * responses on the given executor, which is shut down when the server
+     * is stopped. To run them on virtual threads, so that thousands of 
+     * waiting clients do not need thousands of platform threads, use
+     * {@link AsyncExecutors#newVirtualThreadExecutor()}.
+     */
+    public ServerFixture(int port, ExecutorService asyncExecutor) {
+        
+        this.port = port;
+        this.container = new FixtureContainer(asyncExecutor);
+    }
+    
     public void start() throws IOException {
         
-        server = new FixdServer(new ContainerServer(container));
+        server = new FixdServer(new ContainerServer(new RouterContainer(
+                container, container.getWebSocketRouter(), WEBSOCKET_THREADS)));
         connection = new SocketConnection(server, new LoggingAgent());
         SocketAddress address = new InetSocketAddress(port);
         
@@ -106,11 +136,104 @@ public RequestHandler handle(Method method, String resource, String contentType)
         return handler;
     }
     
+    /**
+     * Handles WebSocket connections to the given resource. The resource 
+     * can have path parameters, as with HTTP handlers.
+     */
+    public WebSocketHandler handleWebSocket(String resource) {
+        
+        return container.addWebSocketHandler(resource);
+    }
+    
+    /**
+     * @return the frames received from WebSocket clients 
+     * that have not been retrieved with {@link #frame()}
+     */
+    public Collection<CapturedFrame> capturedFrames() {
+        
+        return container.getCapturedFrames();
+    }
+    
+    /**
+     * @return the next frame received from a WebSocket client, 
+     * or null if there are none
+     */
+    public CapturedFrame frame() {
+        
+        return container.nextCapturedFrame();
+    }
+    
+    /**
+     * @return the captured requests that have not been retrieved with
+     * {@link #request()}; the collection is a snapshot, or a view of
+     * the journal, and cannot be modified, so use 
+     * {@link #clearCapturedRequests()} to discard them
+     */
     public Collection<CapturedRequest> capturedRequests() {
         
         return container.getCapturedRequests();
     }
     
+    /**
+     * Discards the captured requests that have not been retrieved
+     * with {@link #request()}, for instance between tests.
+     */
+    public void clearCapturedRequests() {
+        
+        container.clearCapturedRequests();
+    }
+    
+    /**
+     * @return the captured requests with the given method and path
+     */
+    public Collection<CapturedRequest> capturedRequests(Method method, String path) {
+        
+        return container.getCapturedRequests(method.name(), path);
+    }
+    
+    /**
+     * @return a new query over the captured requests that
+     * have not been retrieved
+     */
+    public CaptureQuery query() {
+        
+        return container.newCaptureQuery();
+    }
+    
+    /**
+     * Waits for a request that satisfies the given predicate, which
+     * may be a {@link CaptureQuery}. Requests already captured and not
+     * yet retrieved are considered first. The request is not removed
+     * from the captured requests.
+     * 
+     * @return the first request that satisfies the predicate, or null
+     * if none is captured before the timeout expires
+     */
+    public CapturedRequest awaitRequest(CapturedRequestPredicate predicate, 
+            long timeout, TimeUnit unit) throws InterruptedException {
+        
+        Future<CapturedRequest> future = container.awaitCapturedRequest(predicate);
+        try {
+            return future.get(timeout, unit);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            return null;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("error testing captured request", e.getCause());
+        }
+    }
+    
+    /**
+     * @return a future that completes with the first request that 
+     * satisfies the given predicate, considering requests already 
+     * captured and not yet retrieved first; cancelling the future 
+     * stops the wait
+     */
+    public Future<CapturedRequest> awaitRequestAsync(CapturedRequestPredicate predicate) {
+        
+        return container.awaitCapturedRequest(predicate);
+    }
+    
     public CapturedRequest request() {
         
         return container.nextCapturedRequest();
@@ -121,6 +244,107 @@ public void setMaxCapturedRequests(int limit) {
         container.setCapturedRequestLimit(limit);
     }
     
+    /**
+     * Writes captured requests to the given file, rather than keeping
+     * them in memory, so that any number of requests can be captured.
+     * The file is truncated first. Captured requests are read back from 
+     * the file as they are retrieved. Calling this method replaces any
+     * limit set with {@link #setMaxCapturedRequests(int)}, and vice versa.
+     * WebSocket frames are not written to the file; while it is used, 
+     * only the latest 10000 captured frames are kept.
+     */
+    public void setCaptureJournal(File file) throws IOException {
+        
+        container.setCaptureJournal(file);
+    }
+    
+    /**
+     * Sets what is kept of each request captured from now on.
+     * By default, requests are captured in full.
+     */
+    public void setCapturePolicy(CapturePolicy policy) {
+        
+        container.setCapturePolicy(policy);
+    }
+    
+    /**
+     * @return the number of captured requests that were discarded,
+     * before being retrieved, because the limit set with 
+     * {@link #setMaxCapturedRequests(int)} was reached
+     */
+    public long droppedRequests() {
+        
+        return container.getDroppedCapturedRequests();
+    }
+    
+    /**
+     * @return the number of captured WebSocket frames that were 
+     * discarded, before being retrieved, because the limit set with 
+     * {@link #setMaxCapturedRequests(int)}, which applies to frames 
+     * as well, was reached
+     */
+    public long droppedFrames() {
+        
+        return container.getDroppedCapturedFrames();
+    }
+    
+    /**
+     * @return the clients currently waiting on suspended handlers
+     */
+    public List<SubscriberStats> subscribers() {
+        
+        return container.getSubscriberStats();
+    }
+    
+    /**
+     * @return the number of broadcasts that subscribers were not sent 
+     * because they had too many waiting, as limited with 
+     * {@link RequestHandler#withMaxPendingBroadcasts(int, OverflowPolicy)}
+     */
+    public long droppedBroadcasts() {
+        
+        return container.getDroppedBroadcasts();
+    }
+    
+    /**
+     * Limits the rate at which the body of each response is sent, in 
+     * bytes per second, for handlers that do not set their own limit
+     * with {@link RequestHandler#withMaxThroughput(long)}.
+     */
+    public void setMaxThroughput(long bytesPerSecond) {
+        
+        container.setMaxThroughput(bytesPerSecond);
+    }
+    
+    /**
+     * Holds back the first byte of each response for the given time,
+     * for handlers that do not set their own with 
+     * {@link RequestHandler#withTimeToFirstByte(long, TimeUnit)}.
+     */
+    public void setTimeToFirstByte(long delay, TimeUnit delayUnit) {
+        
+        container.setTimeToFirstByte(delay, delayUnit);
+    }
+    
+    /**
+     * Holds back each piece of each throttled response by a random time 
+     * up to the given maximum, for handlers that do not set their own with 
+     * {@link RequestHandler#withChunkJitter(long, TimeUnit)}.
+     */
+    public void setChunkJitter(long maxJitter, TimeUnit jitterUnit) {
+        
+        container.setChunkJitter(maxJitter, jitterUnit);
+    }
+    
+    /**
+     * @return the latencies that delayed responses were meant to 
+     * have, and the latencies they actually had
+     */
+    public LatencyStats latencyStats() {
+        
+        return container.getLatencyStats();
+    }
+    
     public RequestMarshaller marshal(String contentType) {
         
         RequestMarshallerImpl marshaller = new RequestMarshallerImpl(contentType);
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd;
+
+/**
+ * The state of a client waiting on a suspended handler.
+ * 
+ * @author Luis Antunes
+ */
+public interface SubscriberStats {
+
+    /**
+     * @return the path of the request the client subscribed with
+     */
+    String getPath();
+    
+    /**
+     * @return the number of broadcasts waiting to be sent to the client
+     */
+    int getPendingBroadcasts();
+    
+    /**
+     * @return the number of broadcasts the client was not sent because
+     * it had too many waiting, as limited with 
+     * {@link RequestHandler#withMaxPendingBroadcasts(int, OverflowPolicy)}
+     */
+    long getDroppedBroadcasts();
+}
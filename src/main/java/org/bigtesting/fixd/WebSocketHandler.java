@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scripts the messages sent to the clients of a WebSocket resource. 
+ * Every message is sent as a text frame.
+ * 
+ * @author Luis Antunes
+ */
+public interface WebSocketHandler {
+
+    /**
+     * Sends the given message to each client as soon as it connects.
+     */
+    WebSocketHandler onConnect(String message);
+    
+    /**
+     * Sends each text message received back to the client that sent it.
+     */
+    WebSocketHandler echo();
+    
+    /**
+     * Replies to each text message received that matches the given 
+     * regular expression. The reply can refer to the groups of the 
+     * expression, as in $1.
+     */
+    WebSocketHandler onMessage(String regex, String reply);
+    
+    /**
+     * Sends the given message to each client at a fixed time interval, 
+     * starting as soon as the client connects.
+     */
+    WebSocketHandler every(long period, TimeUnit periodUnit, String message);
+    
+    /**
+     * Sends the given message to each client at a fixed time interval,
+     * a maximum of the given number of times. The socket is left open 
+     * once the last message has been sent.
+     */
+    WebSocketHandler every(long period, TimeUnit periodUnit, int times, String message);
+    
+    /**
+     * Sends the given message to every connected client upon receiving 
+     * a request for the given resource. As with the body of a handler,
+     * the message can refer to the values of the request, such as
+     * its path parameters.
+     */
+    WebSocketHandler upon(Method method, String resource, String message);
+}
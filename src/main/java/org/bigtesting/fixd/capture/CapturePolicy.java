@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.capture;
+
+/**
+ * Decides what is kept of each request when it is captured. The
+ * request line and headers are always kept; a request body is only
+ * kept if it is no larger than the policy's maximum body size.
+ *
+ * @author Luis Antunes
+ */
+public class CapturePolicy {
+
+    /**
+     * Captures every request in full. This is the default.
+     */
+    public static final CapturePolicy ALL = new CapturePolicy(Integer.MAX_VALUE);
+
+    /**
+     * Captures the request line and headers only.
+     */
+    public static final CapturePolicy NO_BODIES = new CapturePolicy(0);
+
+    private final int maxBodySize;
+
+    private CapturePolicy(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Captures request bodies of at most the given number of bytes.
+     * Larger bodies are not captured at all.
+     */
+    public static CapturePolicy bodiesUpTo(int maxBodySize) {
+
+        if (maxBodySize < 0) {
+            throw new IllegalArgumentException("maximum body size cannot be negative");
+        }
+        return new CapturePolicy(maxBodySize);
+    }
+
+    public int getMaxBodySize() {
+
+        return maxBodySize;
+    }
+}
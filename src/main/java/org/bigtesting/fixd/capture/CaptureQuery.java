@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.capture;
+
+import java.util.List;
+import java.util.Map;
+
+import org.bigtesting.fixd.Method;
+
+/**
+ * A query over the captured requests that have not yet been retrieved.
+ * Conditions are combined, so that a request must meet all of them to
+ * be included. Queries by method and route are answered from indexes
+ * kept as requests are captured, rather than by scanning every request.
+ * A query is evaluated each time one of its results is asked for.
+ * A query is also a predicate, which a request satisfies if it meets
+ * all of the query's conditions.
+ *
+ * @author Luis Antunes
+ */
+public interface CaptureQuery extends CapturedRequestPredicate {
+
+    CaptureQuery method(Method method);
+
+    /**
+     * Matches requests resolved to the handler for the given route,
+     * such as /orders/:id.
+     */
+    CaptureQuery route(String route);
+
+    CaptureQuery path(String path);
+
+    /**
+     * Matches requests that have a header with the given name.
+     */
+    CaptureQuery header(String name);
+
+    CaptureQuery header(String name, String value);
+
+    /**
+     * Matches requests received at or after the given time, in
+     * milliseconds since the epoch.
+     */
+    CaptureQuery since(long time);
+
+    /**
+     * Matches requests received before the given time, in
+     * milliseconds since the epoch.
+     */
+    CaptureQuery until(long time);
+
+    List<CapturedRequest> list();
+
+    int count();
+
+    /**
+     * Returns the earliest matching request, or null if there is none.
+     */
+    CapturedRequest first();
+
+    /**
+     * Returns the latest matching request, or null if there is none.
+     */
+    CapturedRequest last();
+
+    Map<String, Integer> countByMethod();
+
+    /**
+     * Returns the number of matching requests for each route; requests
+     * that were not resolved to a handler are not counted.
+     */
+    Map<String, Integer> countByRoute();
+
+    /**
+     * Returns the combined size, in bytes, of the captured bodies
+     * of the matching requests.
+     */
+    long totalBodySize();
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.capture;
+
+/**
+ * A frame received from a client of a WebSocket resource.
+ * 
+ * @author Luis Antunes
+ */
+public interface CapturedFrame {
+
+    /**
+     * Returns the path of the request the client connected with.
+     */
+    String getPath();
+    
+    /**
+     * Returns the time at which the frame was received, in
+     * milliseconds since the epoch.
+     */
+    long getTimestamp();
+    
+    /**
+     * Returns true if the frame was a text frame, rather 
+     * than a binary one.
+     */
+    boolean isText();
+    
+    /**
+     * Returns the text of a text frame, or null for a binary frame.
+     */
+    String getText();
+    
+    byte[] getData();
+}
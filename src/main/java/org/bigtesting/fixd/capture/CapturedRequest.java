@@ -29,12 +29,42 @@ public interface CapturedRequest {
     
     String getMethod();
     
+    /**
+     * Returns the route of the handler that the request was resolved
+     * to, such as /orders/:id, or null if no handler was found for it.
+     */
+    String getRoute();
+    
+    /**
+     * Returns the time at which the request was received, in
+     * milliseconds since the epoch.
+     */
+    long getTimestamp();
+    
     List<String> getHeaders();
     
+    /**
+     * Returns the value of the first header with the given name,
+     * ignoring case, or null if the request has no such header.
+     */
+    String getHeader(String name);
+    
     byte[] getBody();
     
     String getBody(String encoding);
     
+    /**
+     * Returns the size, in bytes, of the captured body.
+     */
+    int getBodySize();
+    
+    /**
+     * Returns false if the body of this request was left out
+     * because of the {@link CapturePolicy} in effect when the 
+     * request was captured, in which case the body is empty.
+     */
+    boolean isBodyCaptured();
+    
     /**
      * Returns true if this request was broadcast to any subscribers.
      */
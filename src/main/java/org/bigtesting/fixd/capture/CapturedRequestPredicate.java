@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.capture;
+
+/**
+ * A condition on captured requests, used to wait for a request
+ * that meets it. A predicate is tested on the thread that captured
+ * the request, so it should return quickly.
+ * 
+ * @author Luis Antunes
+ */
+public interface CapturedRequestPredicate {
+
+    boolean test(CapturedRequest request);
+}
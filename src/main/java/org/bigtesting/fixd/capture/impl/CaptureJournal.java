@@ -0,0 +1,538 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.capture.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.bigtesting.fixd.capture.CapturedRequest;
+
+/**
+ * An append-only file of captured requests, which lets a server
+ * fixture keep every request it receives without holding them on
+ * the heap. The file is written and read through memory-mapped
+ * segments, and records are only decoded when they are read back.
+ * <p>
+ * The file starts with an 8 byte magic number and a version,
+ * followed by the records. Each record is laid out as:
+ * <pre>
+ * int     record length, including this field
+ * byte    flags: 1 if the body was captured, 2 if broadcast
+ * long    sequence number
+ * long    time received, in milliseconds since the epoch
+ * string  method
+ * string  path
+ * string  route, empty if the request was not resolved to a handler
+ * string  request line
+ * int     header count, then a name and value string per header
+ * int     body length, then the body bytes
+ * </pre>
+ * where a string is an int length followed by that many bytes of
+ * UTF-8. A record never spans two segments; a zero length, or too
+ * little room left for one, marks the end of a segment.
+ * <p>
+ * The only index kept in memory records, for each method, route and path,
+ * which segments hold requests for it, so its size depends on the
+ * number of segments and distinct paths rather than on the number
+ * of requests.
+ *
+ * @author Luis Antunes
+ */
+public class CaptureJournal {
+
+    private static final long MAGIC = 0x4649584443415054L; /* FIXDCAPT */
+
+    private static final int VERSION = 2;
+
+    private static final int FILE_HEADER_SIZE = 12;
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int MAX_INDEXED_PATHS = 10000;
+
+    private static final byte BODY_CAPTURED = 1;
+
+    private static final byte BROADCAST = 2;
+
+    private static final int FLAGS_OFFSET = 4;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+
+    private final RandomAccessFile raf;
+
+    private final FileChannel channel;
+
+    private volatile Segment[] segments = new Segment[0];
+
+    /* the position at which the next record will be written */
+    private volatile long writePosition;
+
+    /* the position of the oldest record not yet polled */
+    private long readPosition;
+
+    private volatile long appended;
+
+    private volatile long polled;
+
+    private final Map<String, BitSet> methodIndex = new HashMap<String, BitSet>();
+
+    private final Map<String, BitSet> routeIndex = new HashMap<String, BitSet>();
+    
+    private final Map<String, BitSet> pathIndex = new HashMap<String, BitSet>();
+
+    /* segments holding paths that did not fit in the path index */
+    private final BitSet unindexedPaths = new BitSet();
+
+    public CaptureJournal(File file) throws IOException {
+
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.raf.setLength(0);
+        this.channel = raf.getChannel();
+
+        Segment first = map(0, SEGMENT_SIZE);
+        first.buffer.putLong(0, MAGIC);
+        first.buffer.putInt(8, VERSION);
+        this.segments = new Segment[]{first};
+        this.writePosition = FILE_HEADER_SIZE;
+        this.readPosition = FILE_HEADER_SIZE;
+    }
+
+    public File getFile() {
+
+        return file;
+    }
+
+    /**
+     * @return the number of requests in the journal that have
+     * not been polled
+     */
+    public long size() {
+
+        return appended - polled;
+    }
+
+    public synchronized void append(SimpleCapturedRequest captured) throws IOException {
+
+        if (segments.length == 0) {
+            throw new IOException("the capture journal is closed: " + file);
+        }
+
+        byte[] method = captured.getMethod().getBytes(UTF8);
+        byte[] path = captured.getPath().getBytes(UTF8);
+        String route = captured.getRoute();
+        byte[] routeBytes = route == null ? new byte[0] : route.getBytes(UTF8);
+        byte[] requestLine = captured.getRequestLine().getBytes(UTF8);
+        String[] names = captured.headerNames();
+        String[] values = captured.headerValues();
+        byte[][] headers = new byte[names.length * 2][];
+        byte[] body = captured.body();
+
+        int length = 4 + 1 + 8 + 8 +
+                4 + method.length + 4 + path.length + 4 + routeBytes.length + 
+                4 + requestLine.length +
+                4 + 4 + body.length;
+        for (int i = 0; i < names.length; i++) {
+            headers[i * 2] = names[i].getBytes(UTF8);
+            headers[i * 2 + 1] = values[i].getBytes(UTF8);
+            length += 8 + headers[i * 2].length + headers[i * 2 + 1].length;
+        }
+
+        Segment segment = segments[segments.length - 1];
+        long position = writePosition;
+        if (position + length > segment.end()) {
+            if (segment.end() - position >= 4) {
+                segment.buffer.putInt(segment.offsetOf(position), 0);
+            }
+            segment = map(segment.end(), Math.max(SEGMENT_SIZE, length));
+            Segment[] grown = new Segment[segments.length + 1];
+            System.arraycopy(segments, 0, grown, 0, segments.length);
+            grown[segments.length] = segment;
+            segments = grown;
+            position = segment.start;
+        }
+
+        ByteBuffer out = segment.buffer.duplicate();
+        out.position(segment.offsetOf(position));
+        out.putInt(length);
+        out.put(captured.isBodyCaptured() ? BODY_CAPTURED : 0);
+        out.putLong(appended);
+        out.putLong(captured.getTimestamp());
+        putBytes(out, method);
+        putBytes(out, path);
+        putBytes(out, routeBytes);
+        putBytes(out, requestLine);
+        out.putInt(names.length);
+        for (byte[] header : headers) {
+            putBytes(out, header);
+        }
+        putBytes(out, body);
+
+        captured.setSequence(appended);
+        captured.journaled(this, position, captured.isBroadcast());
+        index(segments.length - 1, captured.getMethod(), route, captured.getPath());
+
+        writePosition = position + length;
+        appended++;
+    }
+
+    public synchronized SimpleCapturedRequest poll() {
+
+        if (readPosition >= writePosition) {
+            return null;
+        }
+
+        Segment[] current = segments;
+        int index = segmentIndexOf(current, readPosition);
+        long position = recordAt(current, index, readPosition);
+        if (position != readPosition) {
+            index++;
+        }
+
+        Segment segment = current[index];
+        SimpleCapturedRequest captured = decode(segment, position);
+        readPosition = position + segment.buffer.getInt(segment.offsetOf(position));
+        polled++;
+        return captured;
+    }
+
+    /**
+     * @return an iterator over the requests not yet polled, from
+     * oldest to newest, restricted to those with the given method,
+     * route and path, any of which may be null to match all requests;
+     * requests appended after the iterator is created are not included
+     */
+    public Iterator<CapturedRequest> iterator(String method, String route, String path) {
+
+        synchronized (this) {
+            return new JournalIterator(segments, readPosition, writePosition, 
+                    candidateSegments(method, route, path), method, route, path);
+        }
+    }
+
+    /**
+     * Skips the requests not yet polled. They stay in the file,
+     * but are no longer read back from it.
+     */
+    public synchronized void clear() {
+
+        readPosition = writePosition;
+        polled = appended;
+    }
+
+    /**
+     * Closes the file, and lets go of the mapped segments, so their 
+     * memory is released. The requests left in the journal can no 
+     * longer be read.
+     */
+    public synchronized void close() throws IOException {
+
+        clear();
+        segments = new Segment[0];
+        methodIndex.clear();
+        routeIndex.clear();
+        pathIndex.clear();
+        unindexedPaths.clear();
+        raf.close();
+    }
+
+    void setBroadcast(long position, boolean broadcast) {
+
+        Segment segment = segmentAt(position);
+        if (segment == null) {
+            /* the journal has been closed */
+            return;
+        }
+        int offset = segment.offsetOf(position) + FLAGS_OFFSET;
+        synchronized (segment) {
+            byte flags = segment.buffer.get(offset);
+            segment.buffer.put(offset, (byte)(broadcast ? flags | BROADCAST : flags & ~BROADCAST));
+        }
+    }
+
+    /**
+     * @param last what the request was last told, which is 
+     * returned once the journal has been closed
+     */
+    boolean isBroadcast(long position, boolean last) {
+
+        Segment segment = segmentAt(position);
+        if (segment == null) {
+            return last;
+        }
+        return (segment.buffer.get(segment.offsetOf(position) + FLAGS_OFFSET) & BROADCAST) != 0;
+    }
+
+    private void index(int segment, String method, String route, String path) {
+
+        indexed(methodIndex, method).set(segment);
+        if (route != null) {
+            indexed(routeIndex, route).set(segment);
+        }
+
+        BitSet paths = pathIndex.get(path);
+        if (paths == null && pathIndex.size() >= MAX_INDEXED_PATHS) {
+            unindexedPaths.set(segment);
+            return;
+        }
+        indexed(pathIndex, path).set(segment);
+    }
+
+    private static BitSet indexed(Map<String, BitSet> index, String key) {
+
+        BitSet segments = index.get(key);
+        if (segments == null) {
+            segments = new BitSet();
+            index.put(key, segments);
+        }
+        return segments;
+    }
+
+    /* must be called while holding the lock */
+    private BitSet candidateSegments(String method, String route, String path) {
+
+        BitSet candidates = new BitSet();
+        candidates.set(0, segments.length);
+
+        if (method != null) {
+            BitSet forMethod = methodIndex.get(method);
+            if (forMethod == null) return new BitSet();
+            candidates.and(forMethod);
+        }
+
+        if (route != null) {
+            BitSet forRoute = routeIndex.get(route);
+            if (forRoute == null) return new BitSet();
+            candidates.and(forRoute);
+        }
+
+        if (path != null) {
+            BitSet forPath = (BitSet)unindexedPaths.clone();
+            BitSet indexed = pathIndex.get(path);
+            if (indexed != null) forPath.or(indexed);
+            candidates.and(forPath);
+        }
+
+        return candidates;
+    }
+
+    private SimpleCapturedRequest decode(Segment segment, long position) {
+
+        ByteBuffer in = segment.buffer.duplicate();
+        in.position(segment.offsetOf(position) + 4);
+
+        byte flags = in.get();
+        long sequence = in.getLong();
+        long timestamp = in.getLong();
+        String method = getString(in).intern();
+        String path = getString(in);
+        String route = getString(in);
+        String requestLine = getString(in);
+        int headerCount = in.getInt();
+        String[] names = new String[headerCount];
+        String[] values = new String[headerCount];
+        for (int i = 0; i < headerCount; i++) {
+            names[i] = getString(in).intern();
+            values[i] = getString(in);
+        }
+        byte[] body = getBytes(in);
+
+        SimpleCapturedRequest captured = new SimpleCapturedRequest(requestLine,
+                method, path, route.length() == 0 ? null : route.intern(), timestamp, 
+                names, values, body, (flags & BODY_CAPTURED) != 0);
+        captured.setSequence(sequence);
+        captured.journaled(this, position, (flags & BROADCAST) != 0);
+        return captured;
+    }
+
+    private static boolean matches(Segment segment, long position,
+            String method, String route, String path) {
+
+        if (method == null && route == null && path == null) {
+            return true;
+        }
+
+        ByteBuffer in = segment.buffer.duplicate();
+        in.position(segment.offsetOf(position) + 4 + 1 + 8 + 8);
+        String recordMethod = getString(in);
+        String recordPath = getString(in);
+        String recordRoute = getString(in);
+        return (method == null || method.equals(recordMethod)) &&
+                (route == null || route.equals(recordRoute)) &&
+                (path == null || path.equals(recordPath));
+    }
+
+    /*
+     * returns the given position if a record starts there, or
+     * the start of the next segment if the given segment ends there
+     */
+    private static long recordAt(Segment[] segments, int index, long position) {
+
+        Segment segment = segments[index];
+        if (segment.end() - position < 4 ||
+                segment.buffer.getInt(segment.offsetOf(position)) == 0) {
+            return segments[index + 1].start;
+        }
+        return position;
+    }
+
+    private Segment segmentAt(long position) {
+
+        Segment[] current = segments;
+        if (current.length == 0) {
+            return null;
+        }
+        return current[segmentIndexOf(current, position)];
+    }
+
+    private static int segmentIndexOf(Segment[] segments, long position) {
+
+        int low = 0;
+        int high = segments.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segments[mid].start <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private Segment map(long start, int size) throws IOException {
+
+        return new Segment(start, size, channel.map(FileChannel.MapMode.READ_WRITE, start, size));
+    }
+
+    private static void putBytes(ByteBuffer out, byte[] bytes) {
+
+        out.putInt(bytes.length);
+        out.put(bytes);
+    }
+
+    private static byte[] getBytes(ByteBuffer in) {
+
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return bytes;
+    }
+
+    private static String getString(ByteBuffer in) {
+
+        return new String(getBytes(in), UTF8);
+    }
+
+    private static class Segment {
+
+        final long start;
+        final int size;
+        final MappedByteBuffer buffer;
+
+        Segment(long start, int size, MappedByteBuffer buffer) {
+            this.start = start;
+            this.size = size;
+            this.buffer = buffer;
+        }
+
+        long end() {
+            return start + size;
+        }
+
+        int offsetOf(long position) {
+            return (int)(position - start);
+        }
+    }
+
+    private class JournalIterator implements Iterator<CapturedRequest> {
+
+        private final Segment[] segments;
+        private final long to;
+        private final BitSet candidates;
+        private final String method;
+        private final String route;
+        private final String path;
+
+        private long position;
+        private SimpleCapturedRequest next;
+
+        JournalIterator(Segment[] segments, long from, long to,
+                BitSet candidates, String method, String route, String path) {
+
+            this.segments = segments;
+            this.position = from;
+            this.to = to;
+            this.candidates = candidates;
+            this.method = method;
+            this.route = route;
+            this.path = path;
+        }
+
+        public boolean hasNext() {
+
+            while (next == null && position < to) {
+
+                int index = segmentIndexOf(segments, position);
+                long record = recordAt(segments, index, position);
+                if (record != position) {
+                    position = record;
+                    continue;
+                }
+
+                if (!candidates.get(index)) {
+                    /* nothing in this segment is wanted */
+                    position = index + 1 < segments.length ?
+                            segments[index + 1].start : to;
+                    continue;
+                }
+
+                Segment segment = segments[index];
+                if (matches(segment, position, method, route, path)) {
+                    next = decode(segment, position);
+                }
+                position += segment.buffer.getInt(segment.offsetOf(position));
+            }
+            return next != null;
+        }
+
+        public CapturedRequest next() {
+
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            CapturedRequest captured = next;
+            next = null;
+            return captured;
+        }
+
+        public void remove() {
+
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.capture.impl;
+
+import org.bigtesting.fixd.capture.CapturedFrame;
+
+/**
+ * 
+ * @author Luis Antunes
+ */
+public class SimpleCapturedFrame implements CapturedFrame {
+
+    private final String path;
+    private final long timestamp = System.currentTimeMillis();
+    private final String text;
+    private final byte[] data;
+    
+    public SimpleCapturedFrame(String path, String text, byte[] data) {
+        
+        this.path = path;
+        this.text = text;
+        this.data = data;
+    }
+    
+    public String getPath() {
+        return path;
+    }
+    
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    public boolean isText() {
+        return text != null;
+    }
+    
+    public String getText() {
+        return text;
+    }
+    
+    public byte[] getData() {
+        return data.clone();
+    }
+}
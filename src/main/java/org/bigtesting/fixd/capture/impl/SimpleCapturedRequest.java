@@ -20,83 +20,296 @@
 import java.util.ArrayList;
 import java.util.List;
 
+import org.bigtesting.fixd.capture.CapturePolicy;
 import org.bigtesting.fixd.capture.CapturedRequest;
 import org.bigtesting.fixd.util.RequestUtils;
 import org.simpleframework.http.Request;
 
 /**
+ * A copy of a request, taken when the request is received. Nothing
+ * of the original request is retained, so a captured request holds
+ * on to none of the server's connection buffers, and its body can
+ * be read any number of times.
  * 
  * @author Luis Antunes
  */
 public class SimpleCapturedRequest implements CapturedRequest {
 
-    private final Request request;
+    private static final String[] NO_HEADERS = new String[0];
     
-    private boolean broadcast = false;
+    private static final byte[] NO_BODY = new byte[0];
+    
+    private final String requestLine;
+    
+    private final String method;
+    
+    private final String path;
+    
+    private final String route;
+    
+    private final long timestamp;
+    
+    private final String[] headerNames;
+    
+    private final String[] headerValues;
+    
+    private final byte[] body;
+    
+    private final boolean bodyCaptured;
+    
+    private volatile boolean broadcast = false;
+    
+    private long sequence = -1;
+    
+    private volatile boolean retained = false;
+    
+    /* set when the request is stored in a journal */
+    private CaptureJournal journal;
+    private long journalPosition;
     
     public SimpleCapturedRequest(Request request) {
-        this.request = request;
+        this(request, null, CapturePolicy.ALL);
+    }
+    
+    public SimpleCapturedRequest(Request request, CapturePolicy policy) {
+        this(request, null, policy);
+    }
+    
+    public SimpleCapturedRequest(Request request, String route, CapturePolicy policy) {
+        
+        this.method = request.getMethod().intern();
+        this.path = request.getPath().getPath();
+        this.route = route;
+        this.timestamp = System.currentTimeMillis();
+        
+        String header = request.getHeader().toString();
+        int end = lineEnd(header, 0);
+        this.requestLine = header.substring(0, end);
+        
+        List<String> names = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        parseHeaders(header, nextLine(header, end), names, values);
+        this.headerNames = names.isEmpty() ? NO_HEADERS : names.toArray(new String[names.size()]);
+        this.headerValues = values.isEmpty() ? NO_HEADERS : values.toArray(new String[values.size()]);
+        
+        byte[] captured = captureBody(request, policy.getMaxBodySize());
+        this.bodyCaptured = captured != null;
+        this.body = captured == null || captured.length == 0 ? NO_BODY : captured;
+    }
+    
+    SimpleCapturedRequest(String requestLine, String method, String path, 
+            String route, long timestamp, String[] headerNames, String[] headerValues, 
+            byte[] body, boolean bodyCaptured) {
+        
+        this.requestLine = requestLine;
+        this.method = method;
+        this.path = path;
+        this.route = route;
+        this.timestamp = timestamp;
+        this.headerNames = headerNames;
+        this.headerValues = headerValues;
+        this.body = body;
+        this.bodyCaptured = bodyCaptured;
     }
     
     public String getPath() {
         
-        return request.getPath().getPath();
+        return path;
     }
 
     public String getRequestLine() {
         
-        return headerLines()[0];
+        return requestLine;
     }
 
     public String getMethod() {
         
-        return request.getMethod();
+        return method;
+    }
+
+    public String getRoute() {
+        
+        return route;
+    }
+    
+    public long getTimestamp() {
+        
+        return timestamp;
     }
 
     public List<String> getHeaders() {
         
-        List<String> headers = new ArrayList<String>();
-        String[] lines = headerLines();
-        for (int i = 1; i < lines.length; i++) {
-            headers.add(lines[i]);
+        List<String> headers = new ArrayList<String>(headerNames.length);
+        for (int i = 0; i < headerNames.length; i++) {
+            headers.add(headerNames[i] + ": " + headerValues[i]);
         }
         
         return headers;
     }
+    
+    public String getHeader(String name) {
+        
+        for (int i = 0; i < headerNames.length; i++) {
+            if (headerNames[i].equalsIgnoreCase(name)) {
+                return headerValues[i];
+            }
+        }
+        return null;
+    }
 
     public byte[] getBody() {
         
-        try {
-            return RequestUtils.readBody(request.getInputStream());
-        } catch (IOException e) {
-            throw new RuntimeException("error getting body", e);
-        }
+        return body.length == 0 ? body : body.clone();
     }
 
     public String getBody(String encoding) {
         
         try {
             
-            return new String(getBody(), encoding);
+            return new String(body, encoding);
             
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException("error getting encoded body", e);
         }
     }
     
-    private String[] headerLines() {
+    public int getBodySize() {
         
-        String header = request.getHeader().toString();
-        return header.split("\\r?\\n");
+        return body.length;
+    }
+    
+    public boolean isBodyCaptured() {
+        
+        return bodyCaptured;
     }
     
     public void setBroadcast(boolean broadcast) {
         
         this.broadcast = broadcast;
+        if (journal != null) {
+            journal.setBroadcast(journalPosition, broadcast);
+        }
     }
     
     public boolean isBroadcast() {
         
+        if (journal != null) {
+            return journal.isBroadcast(journalPosition, broadcast);
+        }
         return broadcast;
     }
+    
+    /**
+     * @return the position of this request in the order in which
+     * requests were captured, or -1 if it has not been captured
+     */
+    public long getSequence() {
+        
+        return sequence;
+    }
+    
+    public void setSequence(long sequence) {
+        
+        this.sequence = sequence;
+    }
+    
+    /**
+     * @return true if this request is still held by the store it
+     * was captured into, and has not been retrieved or overwritten
+     */
+    public boolean isRetained() {
+        
+        return retained;
+    }
+    
+    public void setRetained(boolean retained) {
+        
+        this.retained = retained;
+    }
+    
+    String[] headerNames() {
+        
+        return headerNames;
+    }
+    
+    String[] headerValues() {
+        
+        return headerValues;
+    }
+    
+    byte[] body() {
+        
+        return body;
+    }
+    
+    void journaled(CaptureJournal journal, long position, boolean broadcast) {
+        
+        this.journal = journal;
+        this.journalPosition = position;
+        this.broadcast = broadcast;
+    }
+    
+    private static byte[] captureBody(Request request, int maxBodySize) {
+        
+        if (maxBodySize == 0 || request.getContentLength() > maxBodySize) {
+            return null;
+        }
+        
+        try {
+            return RequestUtils.readBody(request.getInputStream(), maxBodySize);
+        } catch (IOException e) {
+            throw new RuntimeException("error getting body", e);
+        }
+    }
+    
+    /*
+     * header names repeat from one request to the next, so they 
+     * are interned; a line that starts with whitespace continues 
+     * the value of the header before it
+     */
+    private static void parseHeaders(String header, int start, 
+            List<String> names, List<String> values) {
+        
+        int line = start;
+        while (line < header.length()) {
+            
+            int end = lineEnd(header, line);
+            if (end == line) {
+                break;
+            }
+            
+            char first = header.charAt(line);
+            int colon = header.indexOf(':', line);
+            if ((first == ' ' || first == '\t') && !values.isEmpty()) {
+                int last = values.size() - 1;
+                values.set(last, values.get(last) + " " + header.substring(line, end).trim());
+            } else if (colon != -1 && colon < end) {
+                names.add(header.substring(line, colon).trim().intern());
+                values.add(header.substring(colon + 1, end).trim());
+            }
+            
+            line = nextLine(header, end);
+        }
+    }
+    
+    private static int lineEnd(String header, int from) {
+        
+        int i = from;
+        while (i < header.length()) {
+            char c = header.charAt(i);
+            if (c == '\r' || c == '\n') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+    
+    private static int nextLine(String header, int lineEnd) {
+        
+        int i = lineEnd;
+        if (i < header.length() && header.charAt(i) == '\r') i++;
+        if (i < header.length() && header.charAt(i) == '\n') i++;
+        return i;
+    }
 }
@@ -15,23 +15,34 @@
  */
 package org.bigtesting.fixd.core;
 
-import java.util.AbstractMap.SimpleImmutableEntry;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.File;
+import java.nio.charset.Charset;
 import java.util.concurrent.TimeUnit;
 
+import org.bigtesting.fixd.LatencyProfile;
 import org.bigtesting.fixd.Method;
+import org.bigtesting.fixd.OverflowPolicy;
 import org.bigtesting.fixd.RequestHandler;
+import org.bigtesting.fixd.core.async.Throttle;
+import org.bigtesting.fixd.core.body.ByteArrayResponseBody;
+import org.bigtesting.fixd.core.body.FileResponseBody;
+import org.bigtesting.fixd.core.body.GeneratedResponseBody;
 import org.bigtesting.fixd.core.body.InterpolatedResponseBody;
 import org.bigtesting.fixd.core.body.MarshalledResponseBody;
 import org.bigtesting.fixd.core.body.ResponseBody;
+import org.bigtesting.fixd.core.body.StaticResponseBody;
+import org.bigtesting.fixd.core.body.StreamingResponseBody;
 import org.bigtesting.fixd.core.container.FixtureContainer;
+import org.bigtesting.fixd.interpolation.ResponseBodyInterpolator;
+import org.bigtesting.fixd.interpolation.ResponseBodyTemplate;
 import org.bigtesting.fixd.marshalling.Marshaller;
 import org.bigtesting.fixd.marshalling.MarshallerProvider;
 import org.bigtesting.fixd.request.HttpRequest;
 import org.bigtesting.fixd.request.HttpRequestHandler;
+import org.bigtesting.fixd.request.StreamingHttpRequestHandler;
 import org.bigtesting.fixd.response.impl.SimpleHttpResponse;
 import org.bigtesting.fixd.session.SessionHandler;
+import org.bigtesting.fixd.util.RequestUtils;
 import org.simpleframework.http.Response;
 import org.simpleframework.http.Status;
 
@@ -41,25 +52,38 @@
  */
 public class RequestHandlerImpl implements RequestHandler {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     private int statusCode = -1;
     private String contentType;
-    private String body;
+    private ResponseBodyTemplate bodyTemplate;
+    private ResponseBody staticBody;
     private SessionHandler sessionHandler;
     private long delay = -1;
     private TimeUnit delayUnit;
+    private LatencyProfile latency;
     private long period = -1;
     private TimeUnit periodUnit;
     private int periodTimes = -1;
     private long timeout = -1;
     private TimeUnit timeoutUnit;
     private Upon upon;
-    private Set<SimpleImmutableEntry<String, String>> headers = 
-            new HashSet<SimpleImmutableEntry<String,String>>();
+    private int maxPendingBroadcasts = -1;
+    private OverflowPolicy overflowPolicy;
+    private boolean eventStream = false;
+    private String eventName;
+    private long heartbeatPeriod = 15;
+    private TimeUnit heartbeatUnit = TimeUnit.SECONDS;
+    private int eventLogSize = 100;
+    private Throttle throttle = Throttle.NONE;
+    private ResponseHeaders headers = ResponseHeaders.NONE;
     
     private Object entity;
     
     private HttpRequestHandler httpHandler;
     
+    private StreamingHttpRequestHandler streamingHandler;
+    
     private final FixtureContainer container;
     
     public RequestHandlerImpl(FixtureContainer container) {
@@ -70,7 +94,7 @@ public RequestHandler with(int statusCode, String contentType, String body) {
         
         this.statusCode = statusCode;
         this.contentType = contentType;
-        this.body = body;
+        setBody(body);
         return this;
     }
     
@@ -87,6 +111,65 @@ public RequestHandler with(HttpRequestHandler customHandler) {
         this.httpHandler = customHandler;
         return this;
     }
+    
+    public RequestHandler withStream(int statusCode, String contentType, 
+            StreamingHttpRequestHandler streamingHandler) {
+        
+        this.statusCode = statusCode;
+        this.contentType = contentType;
+        this.streamingHandler = streamingHandler;
+        return this;
+    }
+
+    public RequestHandler withFile(File file, String contentType) {
+        
+        if (!file.isFile() || !file.canRead()) {
+            throw new IllegalArgumentException("not a readable file: " + file);
+        }
+        
+        this.statusCode = Status.OK.code;
+        this.contentType = contentType;
+        this.bodyTemplate = null;
+        this.staticBody = new FileResponseBody(file);
+        return this;
+    }
+    
+    public RequestHandler withGeneratedBody(long size, String pattern, String contentType) {
+        
+        return withGeneratedBody(GeneratedResponseBody.repeating(size, pattern), contentType);
+    }
+    
+    public RequestHandler withGeneratedBody(long size, long seed, String contentType) {
+        
+        return withGeneratedBody(GeneratedResponseBody.random(size, seed), contentType);
+    }
+    
+    private RequestHandler withGeneratedBody(GeneratedResponseBody body, String contentType) {
+        
+        this.statusCode = Status.OK.code;
+        this.contentType = contentType;
+        this.bodyTemplate = null;
+        this.staticBody = body;
+        return this;
+    }
+    
+    public RequestHandler withMaxThroughput(long bytesPerSecond) {
+        
+        this.throttle = throttle.withMaxThroughput(bytesPerSecond);
+        return this;
+    }
+    
+    public RequestHandler withTimeToFirstByte(long delay, TimeUnit delayUnit) {
+        
+        this.throttle = throttle.withFirstByteDelay(delayUnit.toNanos(delay));
+        return this;
+    }
+    
+    public RequestHandler withChunkJitter(long maxJitter, TimeUnit jitterUnit) {
+        
+        this.throttle = throttle.withChunkJitter(jitterUnit.toNanos(maxJitter));
+        return this;
+    }
 
     public RequestHandler withSessionHandler(SessionHandler sessionHandler) {
         
@@ -96,7 +179,7 @@ public RequestHandler withSessionHandler(SessionHandler sessionHandler) {
     
     public RequestHandler withHeader(String name, String value) {
         
-        headers.add(new SimpleImmutableEntry<String, String>(name, value));
+        headers = headers.with(name, value);
         return this;
     }
     
@@ -107,6 +190,12 @@ public RequestHandler after(long delay, TimeUnit delayUnit) {
         return this;
     }
     
+    public RequestHandler withLatency(LatencyProfile profile) {
+        
+        this.latency = profile;
+        return this;
+    }
+    
     public RequestHandler every(long period, TimeUnit periodUnit) {
         
         this.period = period;
@@ -141,6 +230,38 @@ public RequestHandler upon(Method method, String resource, String contentType) {
         return this;
     }
     
+    public RequestHandler withMaxPendingBroadcasts(int maxPending, OverflowPolicy policy) {
+        
+        this.maxPendingBroadcasts = maxPending;
+        this.overflowPolicy = policy;
+        return this;
+    }
+    
+    public RequestHandler asEventStream() {
+        
+        this.eventStream = true;
+        return this;
+    }
+    
+    public RequestHandler asEventStream(String eventName) {
+        
+        this.eventName = eventName;
+        return asEventStream();
+    }
+    
+    public RequestHandler withHeartbeat(long period, TimeUnit periodUnit) {
+        
+        this.heartbeatPeriod = period;
+        this.heartbeatUnit = periodUnit;
+        return this;
+    }
+    
+    public RequestHandler withEventLog(int maxEvents) {
+        
+        this.eventLogSize = maxEvents;
+        return this;
+    }
+    
     public RequestHandler withRedirect(String location) {
         
         return withRedirect(location, Status.FOUND.code);
@@ -150,12 +271,20 @@ public RequestHandler withRedirect(String location, int statusCode) {
         
         this.statusCode = statusCode;
         this.contentType = "text/plain";
-        this.body = "";
+        setBody("");
         withHeader("Location", location);
         withHeader("Connection", "close");
         return this;
     }
     
+    private void setBody(String body) {
+        
+        this.bodyTemplate = ResponseBodyInterpolator.compile(body);
+        /* bodies without placeholders are encoded once, up front */
+        this.staticBody = body != null && bodyTemplate.isConstant() ? 
+                new StaticResponseBody(body, contentType) : null;
+    }
+    
     /*-----------------------------------------*/
     
     public int statusCode() {
@@ -178,19 +307,94 @@ public ResponseBody body(HttpRequest request, Response resp,
             return response.getBody(marshallerProvider);
         }
         
+        if (streamingHandler != null) {
+            return new StreamingResponseBody(streamingHandler, request);
+        }
+        
         if (hasEntity()) {
-            
-            Marshaller marshaller = marshallerProvider.getMarshaller(contentType);
-            if (marshaller == null) {
-                throw new RuntimeException("an entity has been set in the " +
-                		"response, but no marshaller exists for " +
-                		"content type: " + contentType);
-            }
-            
-            return new MarshalledResponseBody(entity, marshaller);
+            return new MarshalledResponseBody(entity, marshaller(marshallerProvider));
+        }
+        
+        if (staticBody != null) {
+            return staticBody;
         }
         
-        return new InterpolatedResponseBody(body, request);
+        return new InterpolatedResponseBody(bodyTemplate, request);
+    }
+    
+    /**
+     * @return the body for the given request, encoded up front so that 
+     * the same bytes can be sent in any number of responses; this must 
+     * not be used for handlers with a custom or streaming handler, since 
+     * their bodies depend on the response being sent
+     */
+    public ResponseBody sharedBody(HttpRequest request, 
+            MarshallerProvider marshallerProvider) {
+        
+        if (hasEntity()) {
+            Marshaller marshaller = marshaller(marshallerProvider);
+            return new ByteArrayResponseBody(
+                    RequestUtils.readBody(marshaller.marshal(entity)));
+        }
+        
+        if (staticBody != null) {
+            return staticBody;
+        }
+        
+        return new StaticResponseBody(bodyTemplate.render(request), contentType);
+    }
+    
+    /**
+     * @return the text sent as the data of an event for the given 
+     * request, when this handler responds with an event stream
+     */
+    public String eventData(HttpRequest request, MarshallerProvider marshallerProvider) {
+        
+        if (hasEntity()) {
+            Marshaller marshaller = marshaller(marshallerProvider);
+            return new String(RequestUtils.readBody(marshaller.marshal(entity)), UTF_8);
+        }
+        
+        if (bodyTemplate == null) {
+            return "";
+        }
+        
+        return bodyTemplate.render(request);
+    }
+    
+    private Marshaller marshaller(MarshallerProvider marshallerProvider) {
+        
+        Marshaller marshaller = marshallerProvider.getMarshaller(contentType);
+        if (marshaller == null) {
+            throw new RuntimeException("an entity has been set in the " +
+            		"response, but no marshaller exists for " +
+            		"content type: " + contentType);
+        }
+        return marshaller;
+    }
+    
+    /**
+     * @return true if this handler always responds with 
+     * the same body, such as a constant string or a file, 
+     * regardless of the request
+     */
+    public boolean hasStaticBody() {
+        return staticBody != null && httpHandler == null && 
+                streamingHandler == null && entity == null;
+    }
+    
+    /**
+     * @return true if the body of this handler is rendered 
+     * from its template, and the request is not used once 
+     * the body has been created
+     */
+    public boolean hasTemplateBody() {
+        return staticBody == null && httpHandler == null && 
+                streamingHandler == null && entity == null;
+    }
+    
+    public ResponseBody staticBody() {
+        return staticBody;
     }
     
     public SessionHandler sessionHandler() {
@@ -198,13 +402,29 @@ public SessionHandler sessionHandler() {
     }
     
     public boolean isAsync() {
-        return delay > -1 || period > -1 || isSuspend();
+        return hasDelay() || period > -1 || isSuspend() || isStreaming();
     }
     
     public long delay() {
         return delay;
     }
     
+    public boolean hasDelay() {
+        return delay > -1 || latency != null;
+    }
+    
+    /**
+     * @return the delay before the next response, drawn from this 
+     * handler's latency profile if it has one, or -1 if there is none
+     */
+    public long nextDelayNanos() {
+        
+        if (latency != null) {
+            return latency.nextNanos();
+        }
+        return delay > -1 ? delayUnit.toNanos(delay) : -1;
+    }
+    
     public TimeUnit delayUnit() {
         return delayUnit;
     }
@@ -241,14 +461,67 @@ public boolean isSuspend() {
         return upon != null;
     }
     
-    public Set<SimpleImmutableEntry<String, String>> headers() {
-        return new HashSet<SimpleImmutableEntry<String, String>>(headers);
+    public int maxPendingBroadcasts() {
+        return maxPendingBroadcasts;
+    }
+    
+    public OverflowPolicy overflowPolicy() {
+        return overflowPolicy;
+    }
+    
+    /**
+     * @return true if this handler responds with server-sent events; 
+     * a custom request handler always writes its own response
+     */
+    public boolean isEventStream() {
+        return eventStream && httpHandler == null;
+    }
+    
+    public String eventName() {
+        return eventName;
+    }
+    
+    public long heartbeatPeriod() {
+        return heartbeatPeriod;
+    }
+    
+    public TimeUnit heartbeatUnit() {
+        return heartbeatUnit;
+    }
+    
+    public int eventLogSize() {
+        return eventLogSize;
+    }
+    
+    public ResponseHeaders headers() {
+        return headers;
     }
     
     public HttpRequestHandler customHandler() {
         return httpHandler;
     }
     
+    /**
+     * @return the throttle a response of this handler is sent with, 
+     * with anything this handler does not set taken from the given
+     * throttle, or null if the response is not to be throttled; the 
+     * bodies of streaming handlers are not throttled, as they are 
+     * written by the handler itself
+     */
+    public Throttle throttle(Throttle defaults) {
+        
+        Throttle merged = throttle.orElse(defaults);
+        return merged.isActive() && !isStreaming() ? merged : null;
+    }
+    
+    /**
+     * @return true if the body of this handler is written by a 
+     * streaming handler, which is kept off the server's threads
+     */
+    public boolean isStreaming() {
+        return streamingHandler != null && httpHandler == null;
+    }
+    
     public Object entity() {
         return entity;
     }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core;
+
+import org.simpleframework.http.Response;
+
+/**
+ * An immutable list of the headers a handler adds to its responses. 
+ * Adding a header creates a new list, so the list a request sees 
+ * never changes while the response is being written.
+ * 
+ * @author Luis Antunes
+ */
+public class ResponseHeaders {
+
+    public static final ResponseHeaders NONE = 
+            new ResponseHeaders(new String[0], new String[0]);
+    
+    private final String[] names;
+    
+    private final String[] values;
+    
+    private ResponseHeaders(String[] names, String[] values) {
+        
+        this.names = names;
+        this.values = values;
+    }
+    
+    /**
+     * @return a list with the given header added to the end 
+     * of this one, or this list if it already has the header
+     */
+    public ResponseHeaders with(String name, String value) {
+        
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name) && values[i].equals(value)) {
+                return this;
+            }
+        }
+        
+        String[] newNames = new String[names.length + 1];
+        String[] newValues = new String[values.length + 1];
+        System.arraycopy(names, 0, newNames, 0, names.length);
+        System.arraycopy(values, 0, newValues, 0, values.length);
+        newNames[names.length] = name;
+        newValues[values.length] = value;
+        return new ResponseHeaders(newNames, newValues);
+    }
+    
+    public int size() {
+        return names.length;
+    }
+    
+    public String name(int index) {
+        return names[index];
+    }
+    
+    public String value(int index) {
+        return values[index];
+    }
+    
+    public void addTo(Response response) {
+        
+        for (int i = 0; i < names.length; i++) {
+            response.addValue(names[i], values[i]);
+        }
+    }
+}
@@ -27,6 +27,7 @@ public class Upon {
     private final String resource;
     private final String contentType;
     private final RequestHandlerImpl handler;
+    private final UponListener listener;
     
     public Upon(Method method, String resource, RequestHandlerImpl handler) {
         this(method, resource, null, handler);
@@ -39,6 +40,16 @@ public Upon(Method method, String resource, String contentType,
         this.resource = resource;
         this.contentType = contentType;
         this.handler = handler;
+        this.listener = null;
+    }
+    
+    public Upon(Method method, String resource, UponListener listener) {
+        
+        this.method = method;
+        this.resource = resource;
+        this.contentType = null;
+        this.handler = null;
+        this.listener = listener;
     }
 
     public Method getMethod() {
@@ -53,7 +64,15 @@ public String getContentType() {
         return contentType;
     }
     
+    /**
+     * @return the suspended handler waiting upon the resource, 
+     * or null if a listener is waiting upon it instead
+     */
     public RequestHandlerImpl getHandler() {
         return handler;
     }
+    
+    public UponListener getListener() {
+        return listener;
+    }
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core;
+
+import org.bigtesting.fixd.capture.impl.SimpleCapturedRequest;
+import org.bigtesting.fixd.request.HttpRequest;
+
+/**
+ * Notified of each request for a resource that something other than 
+ * a suspended HTTP handler waits upon, such as the clients of a 
+ * WebSocket resource.
+ * 
+ * @author Luis Antunes
+ */
+public interface UponListener {
+
+    void upon(HttpRequest request, SimpleCapturedRequest captured);
+}
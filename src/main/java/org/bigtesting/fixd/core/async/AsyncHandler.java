@@ -16,16 +16,22 @@
 package org.bigtesting.fixd.core.async;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.bigtesting.fixd.LatencyStats;
+import org.bigtesting.fixd.SubscriberStats;
 import org.bigtesting.fixd.capture.impl.SimpleCapturedRequest;
 import org.bigtesting.fixd.core.RequestHandlerImpl;
 import org.bigtesting.fixd.core.Upon;
 import org.bigtesting.fixd.core.body.ResponseBody;
 import org.bigtesting.fixd.marshalling.MarshallerProvider;
 import org.bigtesting.fixd.marshalling.UnmarshallerProvider;
+import org.bigtesting.fixd.request.impl.SimpleHttpRequest;
 import org.bigtesting.routd.Route;
 import org.simpleframework.http.Request;
 import org.simpleframework.http.Response;
@@ -36,42 +42,139 @@
  */
 public class AsyncHandler {
 
-    private final List<Subscriber> subscribers = 
-            Collections.synchronizedList(new ArrayList<Subscriber>());
+    private final Subscribers subscribers = new Subscribers();
+    
+    private final AtomicLong droppedBroadcasts = new AtomicLong();
+    
+    private final LatencyRecorder latencies = new LatencyRecorder();
+    
+    private final ConcurrentMap<RequestHandlerImpl, EventLog> eventLogs = 
+            new ConcurrentHashMap<RequestHandlerImpl, EventLog>();
     
     private final ExecutorService asyncExecutor;
     
-    public AsyncHandler(ExecutorService asyncExecutor) {
+    private final ScheduledExecutorService scheduler;
+    
+    private final DisconnectWatcher disconnectWatcher = new DisconnectWatcher();
+    
+    public AsyncHandler(ExecutorService asyncExecutor, ScheduledExecutorService scheduler) {
         
         this.asyncExecutor = asyncExecutor;
+        this.scheduler = scheduler;
     }
     
+    /**
+     * @param throttle how the response is slowed down, 
+     * or null if it is sent as fast as it can be
+     */
     public void doAsync(Request request, Response response, RequestHandlerImpl handler, 
             String responseContentType, ResponseBody responseBody,
             MarshallerProvider marshallerProvider,
-            UnmarshallerProvider unmarshallerProvider) {
+            UnmarshallerProvider unmarshallerProvider,
+            Throttle throttle) {
         
         AsyncTask task = new AsyncTask(request, response, handler, subscribers,
                 responseContentType, responseBody, 
-                marshallerProvider, unmarshallerProvider);
+                marshallerProvider, unmarshallerProvider, 
+                asyncExecutor, scheduler, disconnectWatcher, 
+                handler.isEventStream() ? eventLogFor(handler) : null, 
+                throttle, latencies);
         asyncExecutor.execute(task);
     }
     
     public void broadcastToSubscribers(Request request, Route route, Upon upon, 
-            SimpleCapturedRequest captured) {
+            SimpleCapturedRequest captured, 
+            MarshallerProvider marshallerProvider, 
+            UnmarshallerProvider unmarshallerProvider) {
         
-        synchronized (subscribers) {
-            Broadcast broadcast = new Broadcast(request, route, upon, captured);
-            for (Subscriber subscriber : subscribers) {
-                if (broadcast.isFor(subscriber)) {
-                    subscriber.addNextBroadcast(broadcast);
-                }
+        if (upon == null) {
+            return;
+        }
+        
+        RequestHandlerImpl handler = upon.getHandler();
+        if (handler.isEventStream()) {
+            
+            /* the event is logged even if no one is subscribed right now */
+            String data = handler.eventData(
+                    new SimpleHttpRequest(request, null, route, unmarshallerProvider), 
+                    marshallerProvider);
+            EventLog eventLog = eventLogFor(handler);
+            synchronized (eventLog) {
+                byte[] event = eventLog.append(handler.eventName(), data);
+                deliver(new Broadcast(request, route, upon, captured, event), 
+                        subscribers.subscribedTo(handler));
             }
+            return;
         }
+        
+        List<Subscriber> subscribed = subscribers.subscribedTo(handler);
+        if (subscribed.isEmpty()) {
+            return;
+        }
+        
+        deliver(new Broadcast(request, route, upon, captured), subscribed);
+    }
+    
+    private void deliver(Broadcast broadcast, List<Subscriber> subscribed) {
+        
+        for (Subscriber subscriber : subscribed) {
+            int dropped = subscriber.addNextBroadcast(broadcast);
+            if (dropped > 0) {
+                droppedBroadcasts.addAndGet(dropped);
+            }
+        }
+    }
+    
+    private EventLog eventLogFor(RequestHandlerImpl handler) {
+        
+        EventLog eventLog = eventLogs.get(handler);
+        if (eventLog == null) {
+            EventLog created = new EventLog(handler.eventLogSize());
+            eventLog = eventLogs.putIfAbsent(handler, created);
+            if (eventLog == null) {
+                eventLog = created;
+            }
+        }
+        return eventLog;
+    }
+    
+    public List<SubscriberStats> getSubscriberStats() {
+        
+        return new ArrayList<SubscriberStats>(subscribers.all());
+    }
+    
+    /**
+     * @return the number of broadcasts dropped so far, for any 
+     * subscriber, because the subscriber had too many waiting
+     */
+    public long getDroppedBroadcasts() {
+        
+        return droppedBroadcasts.get();
+    }
+    
+    public LatencyStats getLatencyStats() {
+        
+        return latencies;
+    }
+    
+    /*
+     * subscribers are normally added by the tasks of suspended 
+     * handlers; these allow tools in this package, such as the 
+     * benchmarks, to manage them directly
+     */
+    void addSubscriber(Subscriber subscriber) {
+        
+        subscribers.add(subscriber);
+    }
+    
+    void removeSubscriber(Subscriber subscriber) {
+        
+        subscribers.remove(subscriber);
     }
     
     public void stop() {
         
+        disconnectWatcher.stop();
         asyncExecutor.shutdown();
     }
 }
@@ -15,15 +15,20 @@
  */
 package org.bigtesting.fixd.core.async;
 
-import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.bigtesting.fixd.core.RequestHandlerImpl;
+import org.bigtesting.fixd.core.body.ContentSource;
+import org.bigtesting.fixd.core.body.EventStreamResponseBody;
 import org.bigtesting.fixd.core.body.ResponseBody;
 import org.bigtesting.fixd.marshalling.MarshallerProvider;
 import org.bigtesting.fixd.marshalling.UnmarshallerProvider;
@@ -36,12 +41,24 @@
 import org.slf4j.LoggerFactory;
 
 /**
+ * Sends the response for an async handler. No thread is held while
+ * the task waits: delays, periodic responses and subscribe timeouts 
+ * are set up on the shared scheduler, and a suspended client is only
+ * given a thread from the async executor while there are broadcasts
+ * for it to be sent.
  * 
  * @author Luis Antunes
  */
 public class AsyncTask implements Runnable {
     
     private static final Logger logger = LoggerFactory.getLogger(AsyncTask.class);
+    
+    private static final byte[] STREAM_OPENED = EventStreamResponseBody.comment("stream opened");
+    
+    private static final byte[] HEARTBEAT = EventStreamResponseBody.comment("heartbeat");
+    
+    /* the most events a client that has fallen behind is sent in one write */
+    private static final int MAX_EVENTS_PER_WRITE = 64;
 
     private final Response subscriberResponse;
     private final Request subscriberRequest;
@@ -49,23 +66,64 @@ public class AsyncTask implements Runnable {
     private final String responseContentType; 
     private final ResponseBody responseBody;
     
-    private final List<Subscriber> subscribers;
+    private final Subscribers subscribers;
     
     private final MarshallerProvider marshallerProvider;
     
     private final UnmarshallerProvider unmarshallerProvider;
     
-    private Timer broadcastSubscribeTimeoutTimer;
+    private final ExecutorService asyncExecutor;
+    
+    private final ScheduledExecutorService scheduler;
+    
+    private final DisconnectWatcher disconnectWatcher;
+    
+    /* the log of the handler's events, if it responds with an event stream */
+    private final EventLog eventLog;
+    
+    /* how the response is slowed down, if it is */
+    private final Throttle throttle;
+    
+    private final LatencyRecorder latencies;
+    
+    /* when the request was handled, which the response's latency is measured from */
+    private final long created = System.nanoTime();
     
     private Subscriber subscriber;
-    private final ByteBuffer subscriberConnectedReadBuffer = ByteBuffer.allocate(8192);
+    private volatile DisconnectWatcher.Watch disconnectWatch;
+    
+    /* true while broadcasts are being sent to the subscriber */
+    private final AtomicBoolean sendingBroadcasts = new AtomicBoolean();
+    
+    private volatile boolean finished = false;
+    
+    private volatile boolean disconnecting = false;
+    
+    /*
+     * restarting the timeout only moves the deadline; the check 
+     * already scheduled finds the new deadline and waits for it
+     */
+    private volatile long timeoutDeadline;
+    
+    private volatile ScheduledFuture<?> periodicResponses;
+    
+    private volatile ScheduledFuture<?> heartbeats;
+    
+    /* set when a heartbeat is to be sent with the next broadcasts */
+    private final AtomicBoolean heartbeatDue = new AtomicBoolean();
     
     public AsyncTask(Request request, Response response, 
             RequestHandlerImpl handler,
-            List<Subscriber> subscribers,
+            Subscribers subscribers,
             String responseContentType, ResponseBody responseBody,
             MarshallerProvider marshallerProvider,
-            UnmarshallerProvider unmarshallerProvider) {
+            UnmarshallerProvider unmarshallerProvider,
+            ExecutorService asyncExecutor,
+            ScheduledExecutorService scheduler,
+            DisconnectWatcher disconnectWatcher,
+            EventLog eventLog,
+            Throttle throttle,
+            LatencyRecorder latencies) {
         
         this.subscriberRequest = request;
         this.subscriberResponse = response;
@@ -75,11 +133,24 @@ public AsyncTask(Request request, Response response,
         this.responseBody = responseBody;
         this.marshallerProvider = marshallerProvider;
         this.unmarshallerProvider = unmarshallerProvider;
+        this.asyncExecutor = asyncExecutor;
+        this.scheduler = scheduler;
+        this.disconnectWatcher = disconnectWatcher;
+        this.eventLog = eventLog;
+        this.throttle = throttle;
+        this.latencies = latencies;
     }
 
     public void run() {
         
-        delayIfRequired(handler);
+        afterDelayIfRequired(created, new Runnable() {
+            public void run() {
+                respond();
+            }
+        });
+    }
+    
+    private void respond() {
         
         if (handler.isSuspend()) {
             
@@ -90,106 +161,341 @@ public void run() {
             long period = handler.period();
             if (period > -1) {
                 respondPeriodically(period);
+            } else if (throttle != null) {
+                respondThrottled();
             } else {
-                responseBody.sendAndCommit(subscriberResponse, responseContentType);
+                responseBody.sendAndCommit(subscriberRequest, subscriberResponse, responseContentType);
             }
         }
     }
 
+    private void respondThrottled() {
+        
+        ContentSource content = responseBody.openContent(
+                subscriberRequest, subscriberResponse, responseContentType);
+        if (content != null) {
+            new ThrottledSend(subscriberResponse, content, throttle, asyncExecutor, scheduler)
+                    .start(throttle.firstByteDelayNanos());
+        }
+    }
+    
     private void subscribe() {
         
-        subscriber = new Subscriber(handler);
-        subscribers.add(subscriber);
+        subscriber = new Subscriber(handler, subscriberRequest.getPath().getPath(), 
+            new Runnable() {
+                public void run() {
+                    sendBroadcastsIfNotSending();
+                }
+            },
+            new Runnable() {
+                public void run() {
+                    disconnect();
+                }
+            });
+        if (eventLog == null) {
+            subscribers.add(subscriber);
+        } else {
+            subscribeToEventStream();
+        }
+        
+        disconnectWatch = disconnectWatcher.watch(
+                (SocketChannel)subscriberRequest.getAttribute("fixd-socket"), 
+                new Runnable() {
+                    public void run() {
+                        disconnect();
+                    }
+                });
+        /* the subscriber may have been cut off before the connection was watched */
+        if (finished) {
+            cancelDisconnectWatch();
+        }
 
         startTimeoutCountdownIfRequired();
+    }
+    
+    private void subscribeToEventStream() {
+        
+        /* broadcasts are only queued until the client has been sent the events it missed */
+        sendingBroadcasts.set(true);
+        
+        List<byte[]> frames = new ArrayList<byte[]>();
+        frames.add(STREAM_OPENED);
+        synchronized (eventLog) {
+            frames.addAll(eventLog.eventsAfter(lastEventId()));
+            subscribers.add(subscriber);
+        }
+        sendEvents(frames);
+        
+        long period = handler.heartbeatPeriod();
+        if (period > 0) {
+            heartbeats = scheduler.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    if (finished) {
+                        stopHeartbeats();
+                    } else {
+                        heartbeatDue.set(true);
+                        sendBroadcastsIfNotSending();
+                    }
+                }
+            }, period, period, handler.heartbeatUnit());
+        }
         
-        while(true) {
+        sendBroadcasts();
+    }
+    
+    /*
+     * a client that is connecting for the first time is 
+     * not sent any of the events that came before it
+     */
+    private long lastEventId() {
+        
+        String lastEventId = subscriberRequest.getValue("Last-Event-ID");
+        if (lastEventId != null) {
             try {
-                
-                Broadcast broadcast = subscriber.getNextBroadcast();
-                broadcast.sent(false);
-                
-                if (!subscriberClientStillConnected()) {
-                    break;
+                return Long.parseLong(lastEventId.trim());
+            } catch (NumberFormatException e) {
+                logger.debug("ignoring invalid Last-Event-ID: " + lastEventId);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+    
+    private void sendBroadcastsIfNotSending() {
+        
+        if (sendingBroadcasts.compareAndSet(false, true)) {
+            execute(new Runnable() {
+                public void run() {
+                    sendBroadcasts();
                 }
-                
-                if (broadcast instanceof SubscribeTimeout) {
+            });
+        }
+    }
+    
+    private void sendBroadcasts() {
+        
+        while (true) {
+            
+            if (disconnecting) {
+                closeResponse();
+                return;
+            }
+            if (finished) {
+                return;
+            }
+            
+            final Broadcast broadcast = subscriber.getNextBroadcast();
+            if (broadcast == null) {
+                if (heartbeatDue.compareAndSet(true, false)) {
+                    sendEvents(Collections.singletonList(HEARTBEAT));
+                    continue;
+                }
+                sendingBroadcasts.set(false);
+                /* 
+                 * a broadcast or heartbeat may have been due, or the client 
+                 * disconnected, just before the flag was cleared 
+                 */
+                if ((subscriber.hasNextBroadcast() || disconnecting || heartbeatDue.get()) && 
+                        sendingBroadcasts.compareAndSet(false, true)) {
+                    continue;
+                }
+                return;
+            }
+            
+            broadcast.sent(false);
+            
+            if (broadcast instanceof SubscribeTimeout) {
+                /* the connection is no longer watched once the response is complete */
+                finish();
+                try {
                     subscriberResponse.setStatus(Status.REQUEST_TIMEOUT);
                     subscriberResponse.getPrintStream().close();
-                    break;
+                } catch (Exception e) {
+                    logger.error("error timing out a subscriber", e);
                 }
+                return;
+            }
+            
+            restartTimeoutCountdownIfRequired();
+            
+            if (handler.hasDelay()) {
+                /* the remaining broadcasts are sent once this one has been */
+                afterDelayIfRequired(System.nanoTime(), new Runnable() {
+                    public void run() {
+                        sendBroadcast(broadcast);
+                        sendBroadcasts();
+                    }
+                });
+                return;
+            }
+            
+            if (eventLog != null) {
+                sendEventsFrom(broadcast);
+            } else {
+                sendBroadcast(broadcast);
+            }
+        }
+    }
+    
+    /*
+     * any other events already waiting are sent in the same write
+     */
+    private void sendEventsFrom(Broadcast first) {
+        
+        List<Broadcast> batch = new ArrayList<Broadcast>();
+        batch.add(first);
+        Broadcast next;
+        while (batch.size() < MAX_EVENTS_PER_WRITE && 
+                (next = subscriber.getNextQueuedBroadcast()) != null) {
+            batch.add(next);
+        }
+        
+        List<byte[]> frames = new ArrayList<byte[]>(batch.size());
+        for (Broadcast broadcast : batch) {
+            frames.add(broadcast.getEvent());
+        }
+        
+        if (sendEvents(frames)) {
+            for (Broadcast broadcast : batch) {
+                broadcast.sent(true);
+            }
+        }
+    }
+    
+    private boolean sendEvents(List<byte[]> frames) {
+        
+        try {
+            new EventStreamResponseBody(frames).send(subscriberResponse, responseContentType);
+            return true;
+        } catch (Exception e) {
+            logger.error("error sending events", e);
+            return false;
+        }
+    }
+    
+    private void sendBroadcast(Broadcast broadcast) {
+        
+        if (broadcast.getEvent() != null) {
+            if (sendEvents(Collections.singletonList(broadcast.getEvent()))) {
+                broadcast.sent(true);
+            }
+            return;
+        }
+        
+        try {
+            
+            ResponseBody handlerBody;
+            if (handler.customHandler() == null && !handler.isStreaming()) {
                 
-                restartTimeoutCountdownIfRequired();
+                handlerBody = broadcast.getSharedBody(marshallerProvider, unmarshallerProvider);
                 
-                delayIfRequired(handler);
+            } else {
                 
+                /* a custom or streaming handler responds to each subscriber itself */
                 Request request = broadcast.getRequest();
                 Route route = broadcast.getRoute();
-
+    
                 /* no support for session variables for now */
-                ResponseBody handlerBody = handler.body(
+                handlerBody = handler.body(
                         new SimpleHttpRequest(request, null, route, unmarshallerProvider), 
                         subscriberResponse, marshallerProvider);
-                
-                handlerBody.send(subscriberResponse, responseContentType);
-                
-                broadcast.sent(true);
-                
-            } catch (Exception e) {
-                logger.error("error waiting for, or handling, a broadcast", e);
             }
+            
+            handlerBody.send(subscriberResponse, responseContentType);
+            
+            broadcast.sent(true);
+            
+        } catch (Exception e) {
+            logger.error("error handling a broadcast", e);
         }
+    }
+    
+    /*
+     * called before the response is completed, as the connection may 
+     * be kept alive for another request, which must not be read from
+     */
+    private void finish() {
         
+        finished = true;
         subscribers.remove(subscriber);
+        cancelDisconnectWatch();
+        stopHeartbeats();
     }
     
-    private boolean subscriberClientStillConnected() {
+    private void cancelDisconnectWatch() {
+        
+        DisconnectWatcher.Watch watch = disconnectWatch;
+        if (watch != null) {
+            watch.cancel();
+        }
+    }
+    
+    /*
+     * called when the client goes away, so that the subscriber does not 
+     * linger until the next broadcast, or when it is too far behind and 
+     * is to be cut off; the response is closed by whoever is sending 
+     * the broadcasts, so that it is not closed in the middle of a write
+     */
+    private void disconnect() {
+        
+        disconnecting = true;
+        finish();
+        sendBroadcastsIfNotSending();
+    }
+    
+    private void closeResponse() {
         
         try {
-            subscriberConnectedReadBuffer.clear();
-            int read =((SocketChannel)subscriberRequest.getAttribute("fixd-socket"))
-                    .read(subscriberConnectedReadBuffer);
-            if (read == -1) return false;
-        } catch (IOException e) {
-            return false;
+            subscriberResponse.close();
+        } catch (Exception e) {
+            logger.debug("error closing the response of a disconnected subscriber", e);
         }
-        return true;
     }
     
-    private void delayIfRequired(RequestHandlerImpl handler) {
+    /*
+     * the task is run on the async executor rather than on the 
+     * scheduler, so that a slow client cannot hold up the scheduler
+     */
+    private void afterDelayIfRequired(final long since, final Runnable task) {
         
-        long delay = handler.delay();
-        if (delay > -1) {
-            
-            try {
-                
-                TimeUnit delayUnit = handler.delayUnit();
-                long delayInMillis = delayUnit.toMillis(delay);
-                Thread.sleep(delayInMillis);
-                
-            } catch (Exception e) {
-                throw new RuntimeException("error delaying response", e);
-            }
+        final long delay = handler.nextDelayNanos();
+        if (delay < 0) {
+            task.run();
+            return;
         }
+        
+        /* the delay is counted from when the request was handled, not from now */
+        long remaining = delay - (System.nanoTime() - since);
+        scheduler.schedule(new Runnable() {
+            public void run() {
+                execute(new Runnable() {
+                    public void run() {
+                        latencies.record(delay, System.nanoTime() - since);
+                        task.run();
+                    }
+                });
+            }
+        }, Math.max(0, remaining), TimeUnit.NANOSECONDS);
     }
 
     private void respondPeriodically(long period) {
         
         TimeUnit periodUnit = handler.periodUnit();
-        long periodInMillis = periodUnit.toMillis(period);
         final int times = handler.periodTimes();
-        final Timer timer = new Timer("ServerFixtureTimer", true);
-        timer.scheduleAtFixedRate(new TimerTask() {
+        final Runnable send = new Runnable() {
             
             private int count = 0;
             
-            @Override
-            public void run() {
+            public synchronized void run() {
+                
+                if (finished) {
+                    return;
+                }
+                
                 try {
                     
                     if (times > -1 && count >= times) {
-                        timer.cancel();
-                        timer.purge();
+                        finished = true;
+                        stopPeriodicResponses();
                         subscriberResponse.getPrintStream().close();
                         return;
                     }
@@ -202,30 +508,77 @@ public void run() {
                     logger.error("error sending async response at fixed rate", e);
                 }
             }
-        }, 0, periodInMillis);
+        };
+        
+        periodicResponses = scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                if (finished) {
+                    stopPeriodicResponses();
+                } else {
+                    execute(send);
+                }
+            }
+        }, 0, period, periodUnit);
+    }
+    
+    private void stopHeartbeats() {
+        
+        ScheduledFuture<?> future = heartbeats;
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+    
+    private void stopPeriodicResponses() {
+        
+        ScheduledFuture<?> future = periodicResponses;
+        if (future != null) {
+            future.cancel(false);
+        }
     }
     
     private void startTimeoutCountdownIfRequired() {
         
         if (handler.hasTimeout()) {
-            broadcastSubscribeTimeoutTimer = new Timer("TimeoutTask", true);
-            broadcastSubscribeTimeoutTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    subscriber.addNextBroadcast(new SubscribeTimeout());
-                    broadcastSubscribeTimeoutTimer.cancel();
-                    broadcastSubscribeTimeoutTimer.purge();
-                }
-            }, handler.timeoutUnit().toMillis(handler.timeout()));
+            long timeout = handler.timeoutUnit().toNanos(handler.timeout());
+            timeoutDeadline = System.nanoTime() + timeout;
+            scheduleTimeoutCheck(timeout);
         }
     }
     
     private void restartTimeoutCountdownIfRequired() {
         
-        if (broadcastSubscribeTimeoutTimer != null) {
-            broadcastSubscribeTimeoutTimer.cancel();
-            broadcastSubscribeTimeoutTimer.purge();
+        if (handler.hasTimeout()) {
+            timeoutDeadline = System.nanoTime() + 
+                    handler.timeoutUnit().toNanos(handler.timeout());
+        }
+    }
+    
+    private void scheduleTimeoutCheck(long delayInNanos) {
+        
+        scheduler.schedule(new Runnable() {
+            public void run() {
+                
+                if (finished) {
+                    return;
+                }
+                
+                long remaining = timeoutDeadline - System.nanoTime();
+                if (remaining > 0) {
+                    scheduleTimeoutCheck(remaining);
+                } else {
+                    subscriber.addNextBroadcast(new SubscribeTimeout());
+                }
+            }
+        }, delayInNanos, TimeUnit.NANOSECONDS);
+    }
+    
+    private void execute(Runnable task) {
+        
+        try {
+            asyncExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            /* the server has been stopped */
         }
-        startTimeoutCountdownIfRequired();
     }
 }
@@ -17,6 +17,10 @@
 
 import org.bigtesting.fixd.capture.impl.SimpleCapturedRequest;
 import org.bigtesting.fixd.core.Upon;
+import org.bigtesting.fixd.core.body.ResponseBody;
+import org.bigtesting.fixd.marshalling.MarshallerProvider;
+import org.bigtesting.fixd.marshalling.UnmarshallerProvider;
+import org.bigtesting.fixd.request.impl.SimpleHttpRequest;
 import org.bigtesting.routd.Route;
 import org.simpleframework.http.Request;
 
@@ -31,13 +35,28 @@ public class Broadcast {
     private final Upon upon;
     private final SimpleCapturedRequest captured;
     
+    private final byte[] event;
+    
+    private volatile ResponseBody sharedBody;
+    
     public Broadcast(Request request, Route route, Upon upon, 
             SimpleCapturedRequest captured) {
         
+        this(request, route, upon, captured, null);
+    }
+    
+    /**
+     * @param event the framed event to send, if the broadcast 
+     * is to the subscribers of an event stream
+     */
+    public Broadcast(Request request, Route route, Upon upon, 
+            SimpleCapturedRequest captured, byte[] event) {
+        
         this.request = request;
         this.route = route;
         this.upon = upon;
         this.captured = captured;
+        this.event = event;
     }
     
     public Request getRequest() {
@@ -50,6 +69,11 @@ public Route getRoute() {
         return route;
     }
     
+    public byte[] getEvent() {
+        
+        return event;
+    }
+    
     public boolean isFor(Subscriber subscriber) {
         
         if (upon != null) {
@@ -58,6 +82,30 @@ public boolean isFor(Subscriber subscriber) {
         return false;
     }
     
+    /**
+     * @return the body to send to every subscriber of the handler this 
+     * broadcast is for; it is rendered by the first subscriber to ask 
+     * for it, and the same encoded bytes are sent to all the others
+     */
+    public ResponseBody getSharedBody(MarshallerProvider marshallerProvider, 
+            UnmarshallerProvider unmarshallerProvider) {
+        
+        ResponseBody body = sharedBody;
+        if (body == null) {
+            synchronized (this) {
+                body = sharedBody;
+                if (body == null) {
+                    /* no support for session variables for now */
+                    body = upon.getHandler().sharedBody(
+                            new SimpleHttpRequest(request, null, route, unmarshallerProvider), 
+                            marshallerProvider);
+                    sharedBody = body;
+                }
+            }
+        }
+        return body;
+    }
+    
     public void sent(boolean sent) {
         
         if (captured != null) {
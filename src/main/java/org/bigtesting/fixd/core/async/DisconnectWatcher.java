@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.async;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the connections of suspended clients, and tells their tasks
+ * as soon as a client disconnects. The connections are registered with
+ * a selector of their own, on a single thread shared by all clients,
+ * which is only started once there is a connection to watch.
+ * <p>
+ * NIO cannot tell a closed connection from one with data waiting 
+ * without reading from it, so when a connection becomes readable, one
+ * byte is read, and consumed. A suspended client is not expected to 
+ * send anything while it waits, so this is normally the end of the 
+ * stream. If the client did send something, such as a pipelined 
+ * request, the first byte of it is lost, and the connection is no 
+ * longer watched. A watch is cancelled before its response is
+ * completed, and once {@link Watch#cancel()} has returned, nothing more 
+ * is read from the connection.
+ *
+ * @author Luis Antunes
+ */
+public class DisconnectWatcher implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DisconnectWatcher.class);
+
+    private final Queue<Watch> pending = new ConcurrentLinkedQueue<Watch>();
+
+    /* only used by the watcher thread */
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(1);
+
+    private Selector selector;
+
+    private boolean stopped = false;
+
+    /**
+     * @return a watch which can be cancelled once the client no longer
+     * needs to be watched, or null if the connection cannot be watched
+     */
+    public synchronized Watch watch(SocketChannel channel, Runnable onDisconnect) {
+
+        if (stopped || channel == null) {
+            return null;
+        }
+
+        if (selector == null) {
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                logger.error("error opening the disconnect selector", e);
+                stopped = true;
+                return null;
+            }
+            Thread thread = new Thread(this, "ServerFixtureDisconnectWatcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        Watch watch = new Watch(channel, onDisconnect);
+        pending.add(watch);
+        /* channels can only be registered while the selector is not selecting */
+        selector.wakeup();
+        return watch;
+    }
+
+    public synchronized void stop() {
+
+        stopped = true;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    public void run() {
+
+        try {
+            while (!isStopped()) {
+                selector.select();
+                registerPending();
+                handleSelected();
+            }
+        } catch (IOException e) {
+            logger.error("error watching for disconnected clients", e);
+        } catch (ClosedSelectorException e) {
+            /* the selector has been closed */
+        } finally {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.error("error closing the disconnect selector", e);
+            }
+        }
+    }
+
+    private synchronized boolean isStopped() {
+
+        return stopped;
+    }
+
+    private void registerPending() {
+
+        Watch watch;
+        while ((watch = pending.poll()) != null) {
+
+            if (watch.cancelled) {
+                continue;
+            }
+
+            try {
+                watch.key = watch.channel.register(selector, SelectionKey.OP_READ, watch);
+                if (watch.cancelled) {
+                    watch.key.cancel();
+                }
+            } catch (Exception e) {
+                /* the channel is closed, or is not in non-blocking mode */
+                logger.debug("could not watch a client connection", e);
+            }
+        }
+    }
+
+    private void handleSelected() {
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            Watch watch = (Watch)key.attachment();
+            key.cancel();
+
+            try {
+                boolean closed;
+                synchronized (watch) {
+                    closed = !watch.cancelled && isClosed(watch.channel);
+                }
+                if (closed) {
+                    watch.onDisconnect.run();
+                }
+            } catch (CancelledKeyException e) {
+                /* the watch was cancelled while being handled */
+            } catch (Exception e) {
+                logger.error("error handling a disconnected client", e);
+            }
+        }
+    }
+
+    /*
+     * consumes one byte of anything the client has sent
+     */
+    private boolean isClosed(SocketChannel channel) {
+
+        readBuffer.clear();
+        try {
+            return channel.read(readBuffer) == -1;
+        } catch (IOException e) {
+            /* the connection was reset */
+            return true;
+        }
+    }
+
+    public static class Watch {
+
+        private final SocketChannel channel;
+
+        private final Runnable onDisconnect;
+
+        private volatile SelectionKey key;
+
+        private volatile boolean cancelled = false;
+
+        private Watch(SocketChannel channel, Runnable onDisconnect) {
+
+            this.channel = channel;
+            this.onDisconnect = onDisconnect;
+        }
+
+        /*
+         * waits for a read in progress, so that the connection 
+         * can be used for another request as soon as this returns
+         */
+        public synchronized void cancel() {
+
+            cancelled = true;
+            SelectionKey registered = key;
+            if (registered != null) {
+                registered.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.async;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bigtesting.fixd.core.body.EventStreamResponseBody;
+
+/**
+ * The most recent events broadcast to the subscribers of an event 
+ * stream, kept so that a client which reconnects can be sent the 
+ * events it missed. Events are numbered in the order they are 
+ * broadcast, starting from 1.
+ * <p>
+ * Callers hold the log's lock while they send an event to the 
+ * subscribers or add a subscriber, so that a client which reconnects 
+ * is sent every event exactly once, from the log or as a broadcast.
+ * 
+ * @author Luis Antunes
+ */
+public class EventLog {
+    
+    private final int maxEvents;
+    
+    private final Deque<Event> events = new ArrayDeque<Event>();
+    
+    private long lastId = 0;
+    
+    public EventLog(int maxEvents) {
+        
+        this.maxEvents = maxEvents;
+    }
+    
+    /**
+     * @return the framed event
+     */
+    public synchronized byte[] append(String name, String data) {
+        
+        Event event = new Event(++lastId, 
+                EventStreamResponseBody.event(lastId, name, data));
+        if (maxEvents > 0) {
+            if (events.size() == maxEvents) {
+                events.removeFirst();
+            }
+            events.addLast(event);
+        }
+        return event.frame;
+    }
+    
+    /**
+     * @return the framed events kept that came after the one with the 
+     * given id, from oldest to newest
+     */
+    public synchronized List<byte[]> eventsAfter(long id) {
+        
+        List<byte[]> after = new ArrayList<byte[]>();
+        Iterator<Event> newestFirst = events.descendingIterator();
+        while (newestFirst.hasNext()) {
+            Event event = newestFirst.next();
+            if (event.id <= id) {
+                break;
+            }
+            after.add(event.frame);
+        }
+        Collections.reverse(after);
+        return after;
+    }
+    
+    private static class Event {
+        
+        private final long id;
+        
+        private final byte[] frame;
+        
+        Event(long id, byte[] frame) {
+            this.id = id;
+            this.frame = frame;
+        }
+    }
+}
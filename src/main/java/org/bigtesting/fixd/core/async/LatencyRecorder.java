@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.async;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.bigtesting.fixd.LatencyStats;
+
+/**
+ * Records the target and actual latency of each delayed response. 
+ * Only the most recent samples are kept, in a ring, so that recording 
+ * takes constant memory however many responses are sent.
+ * 
+ * @author Luis Antunes
+ */
+public class LatencyRecorder implements LatencyStats {
+    
+    private static final int MAX_SAMPLES = 10000;
+    
+    private final long[] targets = new long[MAX_SAMPLES];
+    
+    private final long[] actuals = new long[MAX_SAMPLES];
+    
+    private long count = 0;
+    
+    private long maxLag = 0;
+    
+    public synchronized void record(long targetNanos, long actualNanos) {
+        
+        int index = (int)(count % MAX_SAMPLES);
+        targets[index] = targetNanos;
+        actuals[index] = actualNanos;
+        count++;
+        maxLag = Math.max(maxLag, actualNanos - targetNanos);
+    }
+    
+    public synchronized long getCount() {
+        return count;
+    }
+    
+    public long getTargetPercentile(double percentile, TimeUnit unit) {
+        return percentile(targets, percentile, unit);
+    }
+    
+    public long getActualPercentile(double percentile, TimeUnit unit) {
+        return percentile(actuals, percentile, unit);
+    }
+    
+    public synchronized long getMaxLag(TimeUnit unit) {
+        return unit.convert(maxLag, TimeUnit.NANOSECONDS);
+    }
+    
+    private long percentile(long[] samples, double percentile, TimeUnit unit) {
+        
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(samples, (int)Math.min(count, MAX_SAMPLES));
+        }
+        if (sorted.length == 0) {
+            return 0;
+        }
+        Arrays.sort(sorted);
+        int rank = (int)Math.ceil(percentile / 100 * sorted.length) - 1;
+        rank = Math.max(0, Math.min(sorted.length - 1, rank));
+        return unit.convert(sorted[rank], TimeUnit.NANOSECONDS);
+    }
+}
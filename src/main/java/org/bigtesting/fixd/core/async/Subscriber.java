@@ -15,39 +15,211 @@
  */
 package org.bigtesting.fixd.core.async;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.bigtesting.fixd.OverflowPolicy;
+import org.bigtesting.fixd.SubscriberStats;
 import org.bigtesting.fixd.core.RequestHandlerImpl;
 
 /**
+ * A client waiting on a suspended handler. Broadcasts for the client 
+ * are queued, and whoever is responsible for the client is notified
+ * that there is a broadcast to take, rather than having a thread 
+ * blocked waiting for one.
+ * <p>
+ * If the handler limits the number of broadcasts that can be waiting,
+ * a broadcast that would exceed the limit is dealt with according to
+ * the handler's overflow policy. A timeout is not a broadcast for the
+ * client, so it is never dropped, and it is only taken once there are 
+ * no broadcasts waiting.
  * 
  * @author Luis Antunes
  */
-public class Subscriber {
+public class Subscriber implements SubscriberStats {
     
-    private final BlockingQueue<Broadcast> broadcasts = 
-            new LinkedBlockingQueue<Broadcast>();
+    private final Queue<Broadcast> broadcasts = 
+            new ConcurrentLinkedQueue<Broadcast>();
+    
+    /* the size of the queue, which the queue itself takes linear time to count */
+    private final AtomicInteger pending = new AtomicInteger();
+    
+    private final AtomicLong dropped = new AtomicLong();
+    
+    private final Object coalesceLock = new Object();
+    
+    private final AtomicReference<SubscribeTimeout> timeout = 
+            new AtomicReference<SubscribeTimeout>();
     
     private final RequestHandlerImpl handler;
     
+    private final String path;
+    
+    private final Runnable onBroadcast;
+    
+    private final Runnable onDisconnect;
+    
     public Subscriber(RequestHandlerImpl handler) {
         
+        this(handler, null, null, null);
+    }
+    
+    public Subscriber(RequestHandlerImpl handler, Runnable onBroadcast) {
+        
+        this(handler, null, onBroadcast, null);
+    }
+    
+    /**
+     * @param onBroadcast run each time a broadcast is added, 
+     * on the thread that added it
+     * @param onDisconnect run, on the thread that added a broadcast, 
+     * if the broadcast overflows the limit and the handler's policy is 
+     * to disconnect the client
+     */
+    public Subscriber(RequestHandlerImpl handler, String path,
+            Runnable onBroadcast, Runnable onDisconnect) {
+        
         this.handler = handler;
+        this.path = path;
+        this.onBroadcast = onBroadcast;
+        this.onDisconnect = onDisconnect;
+    }
+    
+    /**
+     * @return the next broadcast, or null if there is none
+     */
+    public Broadcast getNextBroadcast() {
+        
+        Broadcast broadcast = getNextQueuedBroadcast();
+        if (broadcast != null) {
+            return broadcast;
+        }
+        return timeout.getAndSet(null);
+    }
+    
+    /**
+     * @return the next broadcast, or null if there is none, 
+     * leaving any timeout to be taken later
+     */
+    public Broadcast getNextQueuedBroadcast() {
+        
+        Broadcast broadcast = broadcasts.poll();
+        if (broadcast != null) {
+            pending.decrementAndGet();
+        }
+        return broadcast;
     }
     
-    public Broadcast getNextBroadcast() throws InterruptedException {
+    public boolean hasNextBroadcast() {
         
-        return broadcasts.take();
+        return !broadcasts.isEmpty() || timeout.get() != null;
     }
     
-    public void addNextBroadcast(Broadcast broadcast) {
+    /**
+     * @return the number of broadcasts dropped as a result 
+     * of adding the given one
+     */
+    public int addNextBroadcast(Broadcast broadcast) {
+        
+        int droppedNow = 0;
+        if (broadcast instanceof SubscribeTimeout) {
+            
+            timeout.set((SubscribeTimeout)broadcast);
+            
+        } else {
+            
+            droppedNow = enqueue(broadcast);
+            if (droppedNow > 0) {
+                dropped.addAndGet(droppedNow);
+            }
+        }
+        
+        if (onBroadcast != null) {
+            onBroadcast.run();
+        }
+        return droppedNow;
+    }
+    
+    private int enqueue(Broadcast broadcast) {
+        
+        int max = handler.maxPendingBroadcasts();
+        if (max < 0) {
+            broadcasts.add(broadcast);
+            pending.incrementAndGet();
+            return 0;
+        }
+        
+        OverflowPolicy policy = handler.overflowPolicy();
+        if (policy == OverflowPolicy.DROP_NEWEST || policy == OverflowPolicy.DISCONNECT) {
+            
+            if (pending.incrementAndGet() <= max) {
+                broadcasts.add(broadcast);
+                return 0;
+            }
+            pending.decrementAndGet();
+            if (policy == OverflowPolicy.DISCONNECT && onDisconnect != null) {
+                onDisconnect.run();
+            }
+            return 1;
+        }
+        
+        if (policy == OverflowPolicy.COALESCE) {
+            return coalesce(broadcast, max);
+        }
         
         broadcasts.add(broadcast);
+        if (pending.incrementAndGet() > max && broadcasts.poll() != null) {
+            pending.decrementAndGet();
+            return 1;
+        }
+        return 0;
+    }
+    
+    /*
+     * broadcasts are coalesced one at a time, so the new broadcast is 
+     * the latest in the queue until it is taken, and everything ahead 
+     * of it is older; the thread sending the broadcasts may still be 
+     * taking them at the same time
+     */
+    private int coalesce(Broadcast broadcast, int max) {
+        
+        synchronized (coalesceLock) {
+            
+            broadcasts.add(broadcast);
+            int droppedNow = 0;
+            if (pending.incrementAndGet() > max) {
+                Broadcast oldest;
+                while ((oldest = broadcasts.peek()) != null && oldest != broadcast) {
+                    if (broadcasts.remove(oldest)) {
+                        pending.decrementAndGet();
+                        droppedNow++;
+                    }
+                }
+            }
+            return droppedNow;
+        }
     }
     
     public RequestHandlerImpl getHandler() {
         
         return handler;
     }
+    
+    public String getPath() {
+        
+        return path;
+    }
+    
+    public int getPendingBroadcasts() {
+        
+        return Math.max(0, pending.get());
+    }
+    
+    public long getDroppedBroadcasts() {
+        
+        return dropped.get();
+    }
 }
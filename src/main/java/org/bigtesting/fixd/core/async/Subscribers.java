@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.async;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.bigtesting.fixd.core.RequestHandlerImpl;
+
+/**
+ * The current subscribers, indexed by the suspended handler they are
+ * waiting on. A broadcast only visits the subscribers of the handler
+ * it is for, without taking a lock, and subscribing or unsubscribing
+ * only copies the subscribers of that same handler.
+ * 
+ * @author Luis Antunes
+ */
+public class Subscribers {
+    
+    private final ConcurrentMap<RequestHandlerImpl, List<Subscriber>> byHandler = 
+            new ConcurrentHashMap<RequestHandlerImpl, List<Subscriber>>();
+    
+    public void add(Subscriber subscriber) {
+        
+        RequestHandlerImpl handler = subscriber.getHandler();
+        List<Subscriber> subscribed = byHandler.get(handler);
+        if (subscribed == null) {
+            List<Subscriber> created = new CopyOnWriteArrayList<Subscriber>();
+            subscribed = byHandler.putIfAbsent(handler, created);
+            if (subscribed == null) {
+                subscribed = created;
+            }
+        }
+        subscribed.add(subscriber);
+    }
+    
+    public void remove(Subscriber subscriber) {
+        
+        List<Subscriber> subscribed = byHandler.get(subscriber.getHandler());
+        if (subscribed != null) {
+            subscribed.remove(subscriber);
+        }
+    }
+    
+    /**
+     * @return the subscribers waiting on the given handler; the list
+     * is not affected by subscribers added or removed while it is 
+     * being iterated
+     */
+    public List<Subscriber> subscribedTo(RequestHandlerImpl handler) {
+        
+        List<Subscriber> subscribed = byHandler.get(handler);
+        if (subscribed == null) {
+            return Collections.emptyList();
+        }
+        return subscribed;
+    }
+    
+    public List<Subscriber> all() {
+        
+        List<Subscriber> all = new ArrayList<Subscriber>();
+        for (List<Subscriber> subscribed : byHandler.values()) {
+            all.addAll(subscribed);
+        }
+        return all;
+    }
+}
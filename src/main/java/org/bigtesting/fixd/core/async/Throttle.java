@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.async;
+
+/**
+ * How a response is slowed down on its way to the client: the rate at 
+ * which its bytes are sent, how long the client waits for the first 
+ * of them, and how much each piece sent after that is randomly held 
+ * back. Any of these can be left unset, in which case a throttle set 
+ * for the whole fixture is used instead.
+ * 
+ * @author Luis Antunes
+ */
+public class Throttle {
+    
+    public static final Throttle NONE = new Throttle(-1, -1, -1);
+
+    private final long bytesPerSecond;
+    
+    private final long firstByteDelayNanos;
+    
+    private final long chunkJitterNanos;
+    
+    private Throttle(long bytesPerSecond, long firstByteDelayNanos, long chunkJitterNanos) {
+        
+        this.bytesPerSecond = bytesPerSecond;
+        this.firstByteDelayNanos = firstByteDelayNanos;
+        this.chunkJitterNanos = chunkJitterNanos;
+    }
+    
+    public Throttle withMaxThroughput(long bytesPerSecond) {
+        return new Throttle(bytesPerSecond, firstByteDelayNanos, chunkJitterNanos);
+    }
+    
+    public Throttle withFirstByteDelay(long nanos) {
+        return new Throttle(bytesPerSecond, nanos, chunkJitterNanos);
+    }
+    
+    public Throttle withChunkJitter(long nanos) {
+        return new Throttle(bytesPerSecond, firstByteDelayNanos, nanos);
+    }
+    
+    /**
+     * @return this throttle, with anything not set 
+     * taken from the given throttle
+     */
+    public Throttle orElse(Throttle defaults) {
+        
+        return new Throttle(
+                bytesPerSecond > 0 ? bytesPerSecond : defaults.bytesPerSecond, 
+                firstByteDelayNanos > -1 ? firstByteDelayNanos : defaults.firstByteDelayNanos, 
+                chunkJitterNanos > -1 ? chunkJitterNanos : defaults.chunkJitterNanos);
+    }
+    
+    /**
+     * @return true if a response sent with this 
+     * throttle is sent any slower than it can be
+     */
+    public boolean isActive() {
+        return bytesPerSecond > 0 || firstByteDelayNanos > 0 || chunkJitterNanos > 0;
+    }
+    
+    /**
+     * @return the maximum number of bytes sent per second, 
+     * or a value less than one if there is no maximum
+     */
+    public long bytesPerSecond() {
+        return bytesPerSecond;
+    }
+    
+    public long firstByteDelayNanos() {
+        return Math.max(0, firstByteDelayNanos);
+    }
+    
+    public long chunkJitterNanos() {
+        return Math.max(0, chunkJitterNanos);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.async;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.bigtesting.fixd.core.body.ContentSource;
+import org.simpleframework.http.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the content of a response a chunk at a time, no faster than a 
+ * token bucket allows. The bucket holds one chunk's worth of tokens, 
+ * and fills at the throttle's rate. Nothing waits between chunks: once
+ * a chunk is written, the next is scheduled on the shared scheduler for 
+ * when the bucket will be full again, plus any jitter, and is written 
+ * on an async thread. A throttled connection therefore only holds a 
+ * thread while a chunk is being written.
+ * 
+ * @author Luis Antunes
+ */
+class ThrottledSend implements Runnable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ThrottledSend.class);
+    
+    private static final int MIN_CHUNK_SIZE = 64;
+    
+    private static final int MAX_CHUNK_SIZE = 64 * 1024;
+    
+    /* a throttled client is sent about this many chunks per second */
+    private static final int CHUNKS_PER_SECOND = 50;
+    
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    
+    private final Response response;
+    
+    private final ContentSource content;
+    
+    private final long bytesPerSecond;
+    
+    private final long chunkJitterNanos;
+    
+    private final int chunkSize;
+    
+    /* 
+     * each chunk is read into this, and written right away; it is 
+     * sized for a chunk, and belongs to the send rather than to a 
+     * thread, as sends may run on any number of virtual threads
+     */
+    private final ByteBuffer buffer;
+    
+    private final ExecutorService asyncExecutor;
+    
+    private final ScheduledExecutorService scheduler;
+    
+    private final Random random = new Random();
+    
+    /*
+     * each chunk is written by the task the previous one scheduled,
+     * so the state below is only ever used by one thread at a time
+     */
+    private double tokens;
+    
+    private long lastRefill;
+    
+    private WritableByteChannel channel;
+    
+    private OutputStream out;
+    
+    ThrottledSend(Response response, ContentSource content, Throttle throttle, 
+            ExecutorService asyncExecutor, ScheduledExecutorService scheduler) {
+        
+        this.response = response;
+        this.content = content;
+        this.bytesPerSecond = throttle.bytesPerSecond();
+        this.chunkJitterNanos = throttle.chunkJitterNanos();
+        this.chunkSize = bytesPerSecond > 0 ? 
+                (int)Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, bytesPerSecond / CHUNKS_PER_SECOND)) : 
+                MAX_CHUNK_SIZE;
+        this.buffer = ByteBuffer.allocate(chunkSize);
+        this.asyncExecutor = asyncExecutor;
+        this.scheduler = scheduler;
+    }
+    
+    void start(long firstByteDelayNanos) {
+        
+        /* the bucket starts full, so the first chunk is sent as soon as it is due */
+        tokens = chunkSize;
+        lastRefill = System.nanoTime() + firstByteDelayNanos;
+        sendNextChunkAfter(firstByteDelayNanos);
+    }
+    
+    public void run() {
+        
+        try {
+            
+            int allowed = chunkSize;
+            if (bytesPerSecond > 0) {
+                long now = System.nanoTime();
+                tokens = Math.min(chunkSize, 
+                        tokens + Math.max(0, now - lastRefill) * bytesPerSecond / NANOS_PER_SECOND);
+                lastRefill = Math.max(now, lastRefill);
+                allowed = (int)tokens;
+            }
+            
+            if (allowed > 0) {
+                
+                buffer.clear();
+                buffer.limit(allowed);
+                boolean finished = fill(buffer);
+                buffer.flip();
+                tokens -= buffer.remaining();
+                
+                write(buffer);
+                if (finished) {
+                    content.close();
+                    channel().close();
+                    return;
+                }
+            }
+            
+            long delay = bytesPerSecond > 0 ? 
+                    (long)((chunkSize - tokens) * NANOS_PER_SECOND / bytesPerSecond) : 0;
+            if (chunkJitterNanos > 0) {
+                delay += (long)(random.nextDouble() * chunkJitterNanos);
+            }
+            sendNextChunkAfter(delay);
+            
+        } catch (IOException e) {
+            /* the client has most likely disconnected */
+            logger.debug("error sending a throttled response", e);
+            close();
+        } catch (RuntimeException e) {
+            logger.error("error sending a throttled response", e);
+            close();
+        }
+    }
+    
+    /**
+     * @return true if there is no more content to send
+     */
+    private boolean fill(ByteBuffer buffer) throws IOException {
+        
+        while (buffer.hasRemaining()) {
+            if (content.read(buffer) == -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void write(ByteBuffer buffer) throws IOException {
+        
+        if (!buffer.hasRemaining()) {
+            return;
+        }
+        WritableByteChannel out = channel();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        /* the response is buffered, so each chunk is pushed out to the client as it is written */
+        this.out.flush();
+    }
+    
+    private WritableByteChannel channel() throws IOException {
+        
+        if (channel == null) {
+            channel = response.getByteChannel();
+            out = response.getOutputStream();
+        }
+        return channel;
+    }
+    
+    private void sendNextChunkAfter(long delayNanos) {
+        
+        try {
+            if (delayNanos <= 0) {
+                asyncExecutor.execute(this);
+            } else {
+                scheduler.schedule(new Runnable() {
+                    public void run() {
+                        try {
+                            asyncExecutor.execute(ThrottledSend.this);
+                        } catch (RejectedExecutionException e) {
+                            /* the fixture has been stopped */
+                            close();
+                        }
+                    }
+                }, delayNanos, TimeUnit.NANOSECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            /* the fixture has been stopped */
+            close();
+        }
+    }
+    
+    private void close() {
+        
+        try {
+            content.close();
+        } catch (IOException e) {
+            logger.debug("error closing the content of a throttled response", e);
+        }
+        try {
+            response.close();
+        } catch (IOException e) {
+            logger.debug("error closing a throttled response", e);
+        }
+    }
+}
@@ -15,15 +15,71 @@
  */
 package org.bigtesting.fixd.core.body;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+import org.bigtesting.fixd.util.HttpDate;
 
 /**
  * 
  * @author Luis Antunes
  */
-public class ByteArrayResponseBody extends InputStreamResponseBody {
+public class ByteArrayResponseBody extends ByteRangeResponseBody {
 
+    private final byte[] content;
+    
+    private final long lastModified = System.currentTimeMillis();
+    
+    private volatile String eTag;
+    
+    private volatile String lastModifiedHeader;
+    
     public ByteArrayResponseBody(byte[] content) {
-        super(new ByteArrayInputStream(content));
+        this.content = content;
+    }
+    
+    @Override
+    public long getContentLength() {
+        return content.length;
+    }
+    
+    @Override
+    public long getLastModified() {
+        return lastModified;
+    }
+    
+    @Override
+    protected String getLastModifiedHeader() {
+        
+        if (lastModifiedHeader == null) {
+            lastModifiedHeader = HttpDate.format(lastModified);
+        }
+        return lastModifiedHeader;
+    }
+    
+    @Override
+    public String getETag() {
+        
+        if (eTag == null) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            eTag = "\"" + Long.toHexString(content.length) + "-" + 
+                    Long.toHexString(crc.getValue()) + "\"";
+        }
+        return eTag;
+    }
+    
+    @Override
+    public boolean hasContent() {
+        return content.length > 0;
+    }
+    
+    @Override
+    protected void transfer(long offset, long length, 
+            WritableByteChannel out) throws IOException {
+        
+        write(ByteBuffer.wrap(content, (int)offset, (int)length), out);
     }
 }
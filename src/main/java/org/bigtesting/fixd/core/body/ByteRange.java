@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.body;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author Luis Antunes
+ */
+class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    /*
+     * requests for more ranges than this are answered
+     * with the whole body instead
+     */
+    private static final int MAX_RANGES = 32;
+
+    final long first;
+    final long last;
+
+    ByteRange(long first, long last) {
+
+        this.first = first;
+        this.last = last;
+    }
+
+    long length() {
+        return last - first + 1;
+    }
+
+    /**
+     * @return the satisfiable ranges in the given Range header value,
+     * an empty list if none of them can be satisfied, or null if the
+     * header is not understood and should be ignored
+     */
+    static List<ByteRange> parse(String header, long contentLength) {
+
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;
+        }
+
+        String[] specs = value.substring(BYTES_UNIT.length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<ByteRange>();
+        for (String spec : specs) {
+
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
+
+            try {
+
+                if (dash == 0) {
+                    /* a suffix range, such as -500 */
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix > 0 && contentLength > 0) {
+                        ranges.add(new ByteRange(
+                                Math.max(0, contentLength - suffix), contentLength - 1));
+                    }
+                    continue;
+                }
+
+                long first = Long.parseLong(spec.substring(0, dash));
+                String lastPos = spec.substring(dash + 1);
+                long last = lastPos.length() == 0 ?
+                        Long.MAX_VALUE : Long.parseLong(lastPos);
+                if (first < 0 || last < first) {
+                    return null;
+                }
+                if (first < contentLength) {
+                    ranges.add(new ByteRange(first, Math.min(last, contentLength - 1)));
+                }
+
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        return ranges;
+    }
+}
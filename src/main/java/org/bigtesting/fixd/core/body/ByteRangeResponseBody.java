@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.body;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bigtesting.fixd.util.HttpDate;
+import org.simpleframework.http.Request;
+import org.simpleframework.http.Response;
+import org.simpleframework.http.Status;
+
+/**
+ * A body whose full length is known up front, and any part of which
+ * can be sent on its own. Such bodies are sent with an ETag and a
+ * stable Last-Modified date, and GET requests for them are answered
+ * according to the If-None-Match, If-Modified-Since, If-Range and
+ * Range headers of the request.
+ *
+ * @author Luis Antunes
+ */
+public abstract class ByteRangeResponseBody extends ResponseBody {
+
+    private static final Charset HEADER_CHARSET = Charset.forName("ISO-8859-1");
+
+    private static final String BOUNDARY = "FIXD_BYTERANGE_BOUNDARY";
+
+    public abstract long getContentLength();
+
+    public abstract String getETag();
+
+    protected abstract void transfer(long offset, long length,
+            WritableByteChannel out) throws IOException;
+
+    @Override
+    public void send(Response resp, String contentType) {
+        try {
+            addStandardHeaders(resp, contentType);
+            transfer(0, getContentLength(), resp.getByteChannel());
+            /* the response is left open, so the content is pushed out to the client now */
+            resp.getOutputStream().flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void sendAndCommit(Response resp, String contentType) {
+        try {
+            long length = getContentLength();
+            addStandardHeaders(resp, contentType);
+            addValidators(resp);
+            resp.setContentLength(length);
+            WritableByteChannel out = resp.getByteChannel();
+            transfer(0, length, out);
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void sendAndCommit(Request req, Response resp, String contentType) {
+
+        if (resp.getCode() != Status.OK.code || !isGetOrHead(req)) {
+            sendAndCommit(resp, contentType);
+            return;
+        }
+
+        try {
+
+            if (isNotModified(req)) {
+                sendNotModified(resp);
+                return;
+            }
+
+            String range = req.getValue("Range");
+            if (range == null || !ifRangeMatches(req)) {
+                sendAndCommit(resp, contentType);
+                return;
+            }
+
+            List<ByteRange> ranges = ByteRange.parse(range, getContentLength());
+            if (ranges == null) {
+                sendAndCommit(resp, contentType);
+            } else if (ranges.isEmpty()) {
+                sendRangeNotSatisfiable(resp);
+            } else if (ranges.size() == 1) {
+                sendRange(resp, contentType, ranges.get(0));
+            } else {
+                sendRanges(resp, contentType, ranges);
+            }
+
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public ContentSource openContent(Request req, Response resp, String contentType) {
+
+        try {
+
+            if (resp.getCode() == Status.OK.code && isGetOrHead(req)) {
+
+                if (isNotModified(req)) {
+                    sendNotModified(resp);
+                    return null;
+                }
+
+                String range = req.getValue("Range");
+                List<ByteRange> ranges = range != null && ifRangeMatches(req) ? 
+                        ByteRange.parse(range, getContentLength()) : null;
+                if (ranges != null && ranges.isEmpty()) {
+                    sendRangeNotSatisfiable(resp);
+                    return null;
+                } else if (ranges != null && ranges.size() == 1) {
+                    ByteRange only = ranges.get(0);
+                    resp.setStatus(Status.PARTIAL_CONTENT);
+                    addStandardHeaders(resp, contentType);
+                    addValidators(resp);
+                    resp.setValue("Content-Range", contentRange(only));
+                    resp.setContentLength(only.length());
+                    return openRange(only.first, only.length());
+                } else if (ranges != null) {
+                    /* the parts are interleaved with headers, so they are sent whole */
+                    return super.openContent(req, resp, contentType);
+                }
+            }
+
+            long length = getContentLength();
+            addStandardHeaders(resp, contentType);
+            addValidators(resp);
+            resp.setContentLength(length);
+            return openRange(0, length);
+
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Opens a range of the content, to be read a piece at a time. By 
+     * default, each piece is transferred on its own; bodies that have 
+     * something to open before transferring can open it once instead.
+     */
+    protected ContentSource openRange(long first, long length) throws IOException {
+
+        return new RangeContent(first, length);
+    }
+
+    private void addValidators(Response resp) {
+
+        resp.setValue("ETag", getETag());
+        resp.setValue("Accept-Ranges", "bytes");
+    }
+
+    private void sendNotModified(Response resp) throws IOException {
+
+        resp.setStatus(Status.NOT_MODIFIED);
+        resp.setValue("Date", HttpDate.now());
+        resp.setValue("Last-Modified", getLastModifiedHeader());
+        resp.setValue("ETag", getETag());
+        resp.close();
+    }
+
+    private void sendRangeNotSatisfiable(Response resp) throws IOException {
+
+        resp.setStatus(Status.REQUESTED_RANGE_NOT_SATISFIABLE);
+        resp.setValue("Date", HttpDate.now());
+        resp.setValue("Content-Range", "bytes */" + getContentLength());
+        resp.setContentLength(0);
+        resp.close();
+    }
+
+    private void sendRange(Response resp, String contentType,
+            ByteRange range) throws IOException {
+
+        resp.setStatus(Status.PARTIAL_CONTENT);
+        addStandardHeaders(resp, contentType);
+        addValidators(resp);
+        resp.setValue("Content-Range", contentRange(range));
+        resp.setContentLength(range.length());
+        WritableByteChannel out = resp.getByteChannel();
+        transfer(range.first, range.length(), out);
+        out.close();
+    }
+
+    private void sendRanges(Response resp, String contentType,
+            List<ByteRange> ranges) throws IOException {
+
+        List<ByteBuffer> partHeaders = new ArrayList<ByteBuffer>(ranges.size());
+        long length = 0;
+        for (ByteRange range : ranges) {
+            ByteBuffer partHeader = HEADER_CHARSET.encode(
+                    "\r\n--" + BOUNDARY + "\r\n" +
+                    "Content-Type: " + contentType + "\r\n" +
+                    "Content-Range: " + contentRange(range) + "\r\n\r\n");
+            partHeaders.add(partHeader);
+            length += partHeader.remaining() + range.length();
+        }
+        ByteBuffer end = HEADER_CHARSET.encode("\r\n--" + BOUNDARY + "--\r\n");
+        length += end.remaining();
+
+        resp.setStatus(Status.PARTIAL_CONTENT);
+        addStandardHeaders(resp, "multipart/byteranges; boundary=" + BOUNDARY);
+        addValidators(resp);
+        resp.setContentLength(length);
+        WritableByteChannel out = resp.getByteChannel();
+        for (int i = 0; i < ranges.size(); i++) {
+            ByteRange range = ranges.get(i);
+            write(partHeaders.get(i), out);
+            transfer(range.first, range.length(), out);
+        }
+        write(end, out);
+        out.close();
+    }
+
+    private String contentRange(ByteRange range) {
+
+        return "bytes " + range.first + "-" + range.last + "/" + getContentLength();
+    }
+
+    private boolean isNotModified(Request req) {
+
+        String ifNoneMatch = req.getValue("If-None-Match");
+        if (ifNoneMatch != null) {
+            return eTagMatches(ifNoneMatch);
+        }
+
+        long ifModifiedSince = HttpDate.parse(req.getValue("If-Modified-Since"));
+        return ifModifiedSince != -1 &&
+                getLastModified() / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private boolean ifRangeMatches(Request req) {
+
+        String ifRange = req.getValue("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            /* If-Range requires a strong comparison */
+            return ifRange.equals(getETag()) && !ifRange.startsWith("W/");
+        }
+
+        long date = HttpDate.parse(ifRange);
+        return date != -1 && getLastModified() / 1000 == date / 1000;
+    }
+
+    private boolean eTagMatches(String eTags) {
+
+        String eTag = weakened(getETag());
+        for (String candidate : eTags.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || weakened(candidate).equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String weakened(String eTag) {
+
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+
+    private static boolean isGetOrHead(Request req) {
+
+        String method = req.getMethod();
+        return "GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method);
+    }
+
+    /*
+     * a range of the content, transferred into the reader's 
+     * buffer one piece at a time
+     */
+    private class RangeContent implements ContentSource {
+
+        private long position;
+
+        private final long end;
+
+        private RangeContent(long first, long length) {
+
+            this.position = first;
+            this.end = first + length;
+        }
+
+        public int read(final ByteBuffer dst) throws IOException {
+
+            if (position >= end) {
+                return -1;
+            }
+            int n = (int)Math.min(dst.remaining(), end - position);
+            transfer(position, n, new WritableByteChannel() {
+                public int write(ByteBuffer src) {
+                    int written = src.remaining();
+                    dst.put(src);
+                    return written;
+                }
+                public boolean isOpen() {
+                    return true;
+                }
+                public void close() {
+                }
+            });
+            position += n;
+            return n;
+        }
+
+        public void close() {
+        }
+    }
+
+    protected static void write(ByteBuffer buffer,
+            WritableByteChannel out) throws IOException {
+
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
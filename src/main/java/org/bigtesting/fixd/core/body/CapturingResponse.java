@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.body;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import org.simpleframework.http.Response;
+import org.simpleframework.http.ResponseWrapper;
+
+/**
+ * A response that keeps the content written to it, rather than 
+ * sending it, while the status and headers go to the response it 
+ * wraps. This lets a body that can only push its content be read
+ * back a piece at a time.
+ * 
+ * @author Luis Antunes
+ */
+class CapturingResponse extends ResponseWrapper {
+
+    private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    
+    private final PrintStream printStream = new PrintStream(content, true);
+    
+    CapturingResponse(Response response) {
+        super(response);
+    }
+    
+    @Override
+    public OutputStream getOutputStream() {
+        return printStream;
+    }
+    
+    @Override
+    public OutputStream getOutputStream(int size) {
+        return printStream;
+    }
+    
+    @Override
+    public PrintStream getPrintStream() {
+        return printStream;
+    }
+    
+    @Override
+    public PrintStream getPrintStream(int size) {
+        return printStream;
+    }
+    
+    @Override
+    public WritableByteChannel getByteChannel() {
+        return Channels.newChannel(printStream);
+    }
+    
+    @Override
+    public WritableByteChannel getByteChannel(int size) {
+        return Channels.newChannel(printStream);
+    }
+    
+    /* the content is sent later, by whoever reads it */
+    @Override
+    public void commit() {
+    }
+    
+    @Override
+    public void close() {
+    }
+    
+    ContentSource getContent() {
+        
+        final ByteBuffer captured = ByteBuffer.wrap(content.toByteArray());
+        return new ContentSource() {
+            public int read(ByteBuffer dst) throws IOException {
+                
+                if (!captured.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(dst.remaining(), captured.remaining());
+                ByteBuffer piece = captured.duplicate();
+                piece.limit(piece.position() + n);
+                dst.put(piece);
+                captured.position(captured.position() + n);
+                return n;
+            }
+            
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.body;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The content of a response, read a piece at a time by whoever 
+ * decides when each piece is sent, rather than pushed to the 
+ * response by the body all at once.
+ * 
+ * @author Luis Antunes
+ */
+public interface ContentSource {
+
+    /**
+     * Reads as much of the remaining content as fits in the buffer.
+     * 
+     * @return the number of bytes read, or -1 if there are none left
+     */
+    int read(ByteBuffer dst) throws IOException;
+    
+    /**
+     * Releases anything the content holds open. It is called once 
+     * the content has been read, or when sending it is abandoned, 
+     * and may be called more than once.
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.body;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.simpleframework.http.Response;
+
+/**
+ * The body of a handler that responds with server-sent events, but not
+ * to broadcasts. Each time the body is sent, such as with every period
+ * of a periodic response, it is sent as a new event of the stream.
+ *
+ * @author Luis Antunes
+ */
+public class EventResponseBody extends ResponseBody {
+
+    private final String name;
+
+    private final String data;
+
+    private final AtomicLong lastId = new AtomicLong();
+
+    public EventResponseBody(String name, String data) {
+        this.name = name;
+        this.data = data;
+    }
+
+    @Override
+    public void send(Response resp, String contentType) {
+        nextEvent().send(resp, contentType);
+    }
+
+    @Override
+    public void sendAndCommit(Response resp, String contentType) {
+        nextEvent().sendAndCommit(resp, contentType);
+    }
+
+    private EventStreamResponseBody nextEvent() {
+        return new EventStreamResponseBody(EventStreamResponseBody.event(
+                lastId.incrementAndGet(), name, data));
+    }
+
+    @Override
+    public boolean hasContent() {
+        return true;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.body;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+import org.simpleframework.http.Response;
+
+/**
+ * A batch of events and comments of a server-sent event stream, already
+ * framed and encoded. The whole batch is written before the response 
+ * is flushed, so that a client which has fallen behind is caught up 
+ * with as few writes to the connection as possible.
+ *
+ * @author Luis Antunes
+ */
+public class EventStreamResponseBody extends ResponseBody {
+
+    public static final String CONTENT_TYPE = "text/event-stream";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<byte[]> frames;
+
+    public EventStreamResponseBody(byte[] frame) {
+        this(Collections.singletonList(frame));
+    }
+
+    public EventStreamResponseBody(List<byte[]> frames) {
+        this.frames = frames;
+    }
+
+    /**
+     * Frames an event; each line of the data is sent in a field of its 
+     * own, as the event stream format requires.
+     *
+     * @param name the type of the event, or null for the default type
+     */
+    public static byte[] event(long id, String name, String data) {
+
+        StringBuilder event = new StringBuilder(data.length() + 32);
+        event.append("id: ").append(id).append('\n');
+        if (name != null) {
+            event.append("event: ").append(name).append('\n');
+        }
+
+        int start = 0;
+        int length = data.length();
+        while (true) {
+            int end = start;
+            while (end < length && data.charAt(end) != '\n' && data.charAt(end) != '\r') {
+                end++;
+            }
+            event.append("data: ").append(data, start, end).append('\n');
+            if (end == length) {
+                break;
+            }
+            if (data.charAt(end) == '\r' && end + 1 < length && data.charAt(end + 1) == '\n') {
+                end++;
+            }
+            start = end + 1;
+        }
+        event.append('\n');
+
+        return event.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Frames a comment, which clients ignore, but which 
+     * keeps the connection from being seen as idle.
+     */
+    public static byte[] comment(String text) {
+
+        return (": " + text + "\n\n").getBytes(UTF_8);
+    }
+
+    @Override
+    public void send(Response resp, String contentType) {
+        try {
+            writeFrames(resp, contentType);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void sendAndCommit(Response resp, String contentType) {
+        try {
+            writeFrames(resp, contentType).close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private WritableByteChannel writeFrames(Response resp, 
+            String contentType) throws IOException {
+
+        addStandardHeaders(resp, CONTENT_TYPE);
+        resp.setValue("Cache-Control", "no-cache");
+
+        WritableByteChannel out = resp.getByteChannel();
+        for (byte[] frame : frames) {
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+        resp.getOutputStream().flush();
+        return out;
+    }
+
+    @Override
+    public boolean hasContent() {
+        return !frames.isEmpty();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.body;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A body backed by a file. The file is streamed to the response
+ * channel using {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+ * in chunks, so memory use stays bounded whatever the size of the file.
+ * This is not zero-copy: the response channel is not a socket channel,
+ * so the JDK copies each chunk through a temporary buffer, and Simple
+ * copies it again into its response buffer.
+ *
+ * @author Luis Antunes
+ */
+public class FileResponseBody extends ByteRangeResponseBody {
+
+    private final File file;
+
+    public FileResponseBody(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public long getContentLength() {
+        return file.length();
+    }
+
+    @Override
+    public long getLastModified() {
+        return file.lastModified();
+    }
+
+    /*
+     * the file can change between requests, so the tag is 
+     * derived from its current size and modification time
+     */
+    @Override
+    public String getETag() {
+        return "\"" + Long.toHexString(file.length()) + "-" + 
+                Long.toHexString(file.lastModified()) + "\"";
+    }
+
+    public boolean hasContent() {
+        return file != null && file.length() > 0;
+    }
+
+    @Override
+    protected void transfer(long offset, long length,
+            WritableByteChannel out) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel in = raf.getChannel();
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                long transferred = in.transferTo(position, end - position, out);
+                if (transferred == 0 && position >= in.size()) {
+                    throw new IOException("the file was truncated while it was being sent");
+                }
+                position += transferred;
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /*
+     * a throttled send reads the range a chunk at a time, 
+     * so the file is opened once for all of its chunks
+     */
+    @Override
+    protected ContentSource openRange(long first, long length) throws IOException {
+
+        return new FileRangeContent(new RandomAccessFile(file, "r").getChannel(), first, length);
+    }
+
+    /*
+     * a range of the file, read straight into the reader's buffer;
+     * the file is closed as soon as the range has been read
+     */
+    private static class FileRangeContent implements ContentSource {
+
+        private final FileChannel in;
+
+        private long position;
+
+        private final long end;
+
+        private FileRangeContent(FileChannel in, long first, long length) {
+
+            this.in = in;
+            this.position = first;
+            this.end = first + length;
+        }
+
+        public int read(ByteBuffer dst) throws IOException {
+
+            if (position >= end) {
+                close();
+                return -1;
+            }
+
+            int limit = dst.limit();
+            dst.limit(dst.position() + (int)Math.min(dst.remaining(), end - position));
+            int n;
+            try {
+                n = in.read(dst, position);
+            } finally {
+                dst.limit(limit);
+            }
+            if (n == -1) {
+                close();
+                throw new IOException("the file was truncated while it was being sent");
+            }
+
+            position += n;
+            if (position >= end) {
+                close();
+            }
+            return n;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
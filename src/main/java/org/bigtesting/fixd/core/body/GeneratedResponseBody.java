@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.body;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A body of any length whose content is generated as it is sent, 
+ * so that only a small buffer is ever held in memory. The content is 
+ * either a pattern repeated over and over, or pseudo-random bytes 
+ * derived from a seed. Either way, each byte depends only on its 
+ * offset, so the same body is sent every time, and any range of it 
+ * can be generated on its own.
+ *
+ * @author Luis Antunes
+ */
+public class GeneratedResponseBody extends ByteRangeResponseBody {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private static final int BLOCK_SIZE = 64 * 1024;
+    
+    private static final int MAX_POOLED_BLOCKS = 16;
+    
+    /* 
+     * the buffers random content is generated into, shared by all 
+     * sends rather than held by each thread, as sends may run on any 
+     * number of virtual threads; at most MAX_POOLED_BLOCKS are kept
+     */
+    private static final Queue<ByteBuffer> randomBlocks = 
+            new ConcurrentLinkedQueue<ByteBuffer>();
+    
+    private static final AtomicInteger pooledBlocks = new AtomicInteger();
+    
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    
+    private final long size;
+    
+    /* the pattern repeated to fill a block, or null for random content */
+    private final ByteBuffer patternBlock;
+    
+    private final int patternLength;
+    
+    private final long seed;
+    
+    private final long created = System.currentTimeMillis();
+    
+    private final String eTag;
+    
+    private GeneratedResponseBody(long size, ByteBuffer patternBlock, 
+            int patternLength, long seed, String eTag) {
+        
+        this.size = size;
+        this.patternBlock = patternBlock;
+        this.patternLength = patternLength;
+        this.seed = seed;
+        this.eTag = eTag;
+    }
+    
+    /**
+     * @return a body of the given size consisting of 
+     * the given pattern, encoded as UTF-8, repeated
+     */
+    public static GeneratedResponseBody repeating(long size, String pattern) {
+        
+        byte[] bytes = pattern.getBytes(UTF_8);
+        if (bytes.length == 0) {
+            throw new IllegalArgumentException("the pattern must not be empty");
+        }
+        
+        /* the block holds a whole number of patterns, so blocks can be sent back to back */
+        int repeats = Math.max(1, BLOCK_SIZE / bytes.length);
+        ByteBuffer block = ByteBuffer.allocateDirect(repeats * bytes.length);
+        for (int i = 0; i < repeats; i++) {
+            block.put(bytes);
+        }
+        block.flip();
+        
+        return new GeneratedResponseBody(size, block.asReadOnlyBuffer(), bytes.length, 0, 
+                "\"" + Long.toHexString(size) + "-p" + Integer.toHexString(pattern.hashCode()) + "\"");
+    }
+    
+    /**
+     * @return a body of the given size consisting of 
+     * pseudo-random bytes generated from the given seed
+     */
+    public static GeneratedResponseBody random(long size, long seed) {
+        
+        return new GeneratedResponseBody(size, null, 0, seed, 
+                "\"" + Long.toHexString(size) + "-r" + Long.toHexString(seed) + "\"");
+    }
+    
+    @Override
+    public long getContentLength() {
+        return size;
+    }
+    
+    @Override
+    public long getLastModified() {
+        return created;
+    }
+
+    @Override
+    public String getETag() {
+        return eTag;
+    }
+
+    public boolean hasContent() {
+        return size > 0;
+    }
+
+    @Override
+    protected void transfer(long offset, long length,
+            WritableByteChannel out) throws IOException {
+        
+        if (patternBlock != null) {
+            transferPattern(offset, length, out);
+        } else {
+            transferRandom(offset, length, out);
+        }
+    }
+    
+    private void transferPattern(long offset, long length, 
+            WritableByteChannel out) throws IOException {
+        
+        ByteBuffer block = patternBlock.duplicate();
+        int position = (int)(offset % patternLength);
+        long sent = 0;
+        while (sent < length) {
+            block.limit((int)Math.min(block.capacity(), position + (length - sent)));
+            block.position(position);
+            sent += block.remaining();
+            write(block, out);
+            position = 0;
+        }
+    }
+    
+    private void transferRandom(long offset, long length, 
+            WritableByteChannel out) throws IOException {
+        
+        ByteBuffer block = randomBlocks.poll();
+        if (block == null) {
+            block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        } else {
+            pooledBlocks.decrementAndGet();
+        }
+        
+        try {
+            
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                
+                /* whole longs are generated, from the one the position falls in */
+                long aligned = position & ~7L;
+                int generated = (int)Math.min(BLOCK_SIZE, (end - aligned + 7) & ~7L);
+                block.clear();
+                for (int i = 0; i < generated; i += 8) {
+                    block.putLong(mix(seed + ((aligned + i) >>> 3) * GOLDEN_GAMMA));
+                }
+                block.limit((int)Math.min(generated, end - aligned));
+                block.position((int)(position - aligned));
+                
+                position = aligned + block.limit();
+                write(block, out);
+            }
+            
+        } finally {
+            release(block);
+        }
+    }
+    
+    private static void release(ByteBuffer block) {
+        
+        if (pooledBlocks.incrementAndGet() <= MAX_POOLED_BLOCKS) {
+            randomBlocks.offer(block);
+        } else {
+            pooledBlocks.decrementAndGet();
+        }
+    }
+    
+    /* the SplitMix64 finalizer, which scrambles consecutive values thoroughly */
+    private static long mix(long z) {
+        
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -16,6 +16,7 @@
 package org.bigtesting.fixd.core.body;
 
 import org.bigtesting.fixd.interpolation.ResponseBodyInterpolator;
+import org.bigtesting.fixd.interpolation.ResponseBodyTemplate;
 import org.bigtesting.fixd.request.HttpRequest;
 
 /**
@@ -27,4 +28,8 @@ public class InterpolatedResponseBody extends StringResponseBody {
     public InterpolatedResponseBody(String body, HttpRequest req) {
         super(ResponseBodyInterpolator.interpolate(body, req));
     }
+    
+    public InterpolatedResponseBody(ResponseBodyTemplate template, HttpRequest req) {
+        super(template.render(req));
+    }
 }
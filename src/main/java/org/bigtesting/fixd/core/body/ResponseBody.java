@@ -15,6 +15,8 @@
  */
 package org.bigtesting.fixd.core.body;
 
+import org.bigtesting.fixd.util.HttpDate;
+import org.simpleframework.http.Request;
 import org.simpleframework.http.Response;
 
 /**
@@ -22,19 +24,67 @@
  * @author Luis Antunes
  */
 public abstract class ResponseBody {
+    
+    private static final String SERVER = "Fixd/1.0 (Simple 5.1.4)";
 
     public abstract void send(Response resp, String contentType);
     
     public abstract void sendAndCommit(Response resp, String contentType);
     
+    /**
+     * Sends the body in response to the given request. Bodies that 
+     * can take the request's headers into account, such as those 
+     * that support byte ranges, override this method.
+     */
+    public void sendAndCommit(Request req, Response resp, String contentType) {
+        
+        sendAndCommit(resp, contentType);
+    }
+    
+    /**
+     * Sets the status and headers of the response to the given request, 
+     * and returns the content to be sent, so that it can be sent a piece 
+     * at a time. By default, the whole body is sent into a response which 
+     * keeps the content; bodies that can produce any part of their content 
+     * on demand override this method.
+     * 
+     * @return the content, or null if the response has already been sent
+     */
+    public ContentSource openContent(Request req, Response resp, String contentType) {
+        
+        CapturingResponse capturing = new CapturingResponse(resp);
+        sendAndCommit(req, capturing, contentType);
+        return capturing.getContent();
+    }
+    
     public abstract boolean hasContent();
     
+    /**
+     * @return the time at which the content of this body last changed, 
+     * or -1 if the content is generated anew for each response
+     */
+    public long getLastModified() {
+        
+        return -1;
+    }
+    
+    /**
+     * @return the value of the Last-Modified header for this body, 
+     * or null if the content is generated anew for each response
+     */
+    protected String getLastModifiedHeader() {
+        
+        long lastModified = getLastModified();
+        return lastModified != -1 ? HttpDate.format(lastModified) : null;
+    }
+    
     protected void addStandardHeaders(Response response, String responseContentType) {
         
-        long time = System.currentTimeMillis();
+        String now = HttpDate.now();
+        String lastModified = getLastModifiedHeader();
         response.setValue("Content-Type", responseContentType);
-        response.setValue("Server", "Fixd/1.0 (Simple 5.1.4)");
-        response.setDate("Date", time);
-        response.setDate("Last-Modified", time);
+        response.setValue("Server", SERVER);
+        response.setValue("Date", now);
+        response.setValue("Last-Modified", lastModified != null ? lastModified : now);
     }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.body;
+
+import java.nio.charset.Charset;
+
+/**
+ * A body whose content never changes from one request to the next.
+ * The content is encoded once, when the body is created, and the
+ * same bytes are written for every response, so a single instance
+ * can be shared by all requests for a handler.
+ *
+ * @author Luis Antunes
+ */
+public class StaticResponseBody extends ByteArrayResponseBody {
+
+    private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
+    /*
+     * string bodies have always been written with println(),
+     * so the line separator is kept as part of the content
+     */
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private final boolean hasContent;
+
+    public StaticResponseBody(String body, String contentType) {
+
+        super((body + LINE_SEPARATOR).getBytes(charsetOf(contentType)));
+        this.hasContent = body != null && body.trim().length() > 0;
+    }
+
+    @Override
+    public boolean hasContent() {
+        return hasContent;
+    }
+
+    private static Charset charsetOf(String contentType) {
+
+        if (contentType == null) {
+            return DEFAULT_CHARSET;
+        }
+
+        int index = contentType.toLowerCase().indexOf("charset=");
+        if (index == -1) {
+            return DEFAULT_CHARSET;
+        }
+
+        String charset = contentType.substring(index + "charset=".length());
+        int end = charset.indexOf(';');
+        if (end != -1) {
+            charset = charset.substring(0, end);
+        }
+        charset = charset.trim().replace("\"", "");
+
+        try {
+            return Charset.forName(charset);
+        } catch (Exception e) {
+            return DEFAULT_CHARSET;
+        }
+    }
+}
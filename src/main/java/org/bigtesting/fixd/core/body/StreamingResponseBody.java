@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.body;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+import org.bigtesting.fixd.request.HttpRequest;
+import org.bigtesting.fixd.request.StreamingHttpRequestHandler;
+import org.bigtesting.fixd.response.ResponseSink;
+import org.simpleframework.http.Response;
+
+/**
+ * A body written by a streaming handler as it is produced. No 
+ * Content-Length is set, so the body is sent with chunked transfer 
+ * encoding. The response's channel writes into a buffer of fixed 
+ * size, and blocks while the buffer is full until the socket 
+ * can take more, which keeps the handler to the client's pace.
+ * 
+ * @author Luis Antunes
+ */
+public class StreamingResponseBody extends ResponseBody {
+
+    private final StreamingHttpRequestHandler handler;
+    
+    private final HttpRequest request;
+    
+    public StreamingResponseBody(StreamingHttpRequestHandler handler, HttpRequest request) {
+        
+        this.handler = handler;
+        this.request = request;
+    }
+    
+    @Override
+    public void send(Response resp, String contentType) {
+        
+        stream(resp, contentType, false);
+    }
+
+    @Override
+    public void sendAndCommit(Response resp, String contentType) {
+        
+        stream(resp, contentType, true);
+    }
+    
+    private void stream(Response resp, String contentType, boolean commit) {
+        
+        try {
+            addStandardHeaders(resp, contentType);
+            ChannelSink sink = new ChannelSink(resp);
+            handler.handle(request, sink);
+            if (commit) {
+                sink.close();
+            } else {
+                sink.flush();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean hasContent() {
+        return true;
+    }
+    
+    private static class ChannelSink implements ResponseSink {
+        
+        private final Response response;
+        
+        private final WritableByteChannel channel;
+        
+        private boolean closed = false;
+        
+        private ChannelSink(Response response) throws IOException {
+            
+            this.response = response;
+            this.channel = response.getByteChannel();
+        }
+        
+        public void write(ByteBuffer buffer) throws IOException {
+            
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        
+        public void flush() throws IOException {
+            
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            /* the channel writes through the response's output stream */
+            response.getOutputStream().flush();
+        }
+        
+        public void close() throws IOException {
+            
+            if (!closed) {
+                closed = true;
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.container;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bigtesting.fixd.capture.CapturedRequest;
+import org.bigtesting.fixd.capture.impl.SimpleCapturedRequest;
+
+/**
+ * Posting lists of the captured requests held in memory, by method
+ * and by route. A request is not removed from its lists when it is
+ * retrieved or overwritten; lists skip such requests when they are
+ * read, and drop them whenever they would otherwise have to grow.
+ *
+ * @author Luis Antunes
+ */
+class CaptureIndex {
+
+    private final ConcurrentMap<String, PostingList> byMethod =
+            new ConcurrentHashMap<String, PostingList>();
+
+    private final ConcurrentMap<String, PostingList> byRoute =
+            new ConcurrentHashMap<String, PostingList>();
+
+    void add(SimpleCapturedRequest captured) {
+
+        listFor(byMethod, captured.getMethod()).add(captured);
+        if (captured.getRoute() != null) {
+            listFor(byRoute, captured.getRoute()).add(captured);
+        }
+    }
+
+    void clear() {
+
+        byMethod.clear();
+        byRoute.clear();
+    }
+
+    /**
+     * @return the requests still held that have the given method and
+     * route, taken from the shorter of the two lists, so they may not
+     * all match both; or null if neither a method nor a route is given
+     */
+    List<CapturedRequest> candidates(String method, String route) {
+
+        PostingList shortest = null;
+        if (method != null) {
+            shortest = byMethod.get(method);
+            if (shortest == null) return new ArrayList<CapturedRequest>();
+        }
+        if (route != null) {
+            PostingList forRoute = byRoute.get(route);
+            if (forRoute == null) return new ArrayList<CapturedRequest>();
+            if (shortest == null || forRoute.size() < shortest.size()) {
+                shortest = forRoute;
+            }
+        }
+        return shortest == null ? null : shortest.retained();
+    }
+
+    private static PostingList listFor(ConcurrentMap<String, PostingList> index, String key) {
+
+        PostingList list = index.get(key);
+        if (list == null) {
+            PostingList created = new PostingList();
+            list = index.putIfAbsent(key, created);
+            if (list == null) {
+                list = created;
+            }
+        }
+        return list;
+    }
+
+    private static class PostingList {
+
+        private SimpleCapturedRequest[] entries = new SimpleCapturedRequest[16];
+        private int size;
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void add(SimpleCapturedRequest captured) {
+
+            if (size == entries.length) {
+                compact();
+                if (size > entries.length / 2) {
+                    SimpleCapturedRequest[] grown = new SimpleCapturedRequest[entries.length * 2];
+                    System.arraycopy(entries, 0, grown, 0, size);
+                    entries = grown;
+                }
+            }
+            entries[size++] = captured;
+        }
+
+        synchronized List<CapturedRequest> retained() {
+
+            List<CapturedRequest> retained = new ArrayList<CapturedRequest>(size);
+            for (int i = 0; i < size; i++) {
+                if (entries[i].isRetained()) {
+                    retained.add(entries[i]);
+                }
+            }
+            if (retained.size() < size / 2) {
+                compact();
+            }
+            return retained;
+        }
+
+        private void compact() {
+
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (entries[i].isRetained()) {
+                    entries[kept++] = entries[i];
+                }
+            }
+            for (int i = kept; i < size; i++) {
+                entries[i] = null;
+            }
+            size = kept;
+        }
+    }
+}
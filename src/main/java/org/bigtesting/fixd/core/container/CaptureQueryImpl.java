@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.container;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bigtesting.fixd.Method;
+import org.bigtesting.fixd.capture.CaptureQuery;
+import org.bigtesting.fixd.capture.CapturedRequest;
+
+/**
+ *
+ * @author Luis Antunes
+ */
+class CaptureQueryImpl implements CaptureQuery {
+
+    private final CapturedRequestContainer container;
+
+    private String method;
+    private String route;
+    private String path;
+    private final List<String[]> headers = new ArrayList<String[]>();
+    private long since = Long.MIN_VALUE;
+    private long until = Long.MAX_VALUE;
+
+    CaptureQueryImpl(CapturedRequestContainer container) {
+        this.container = container;
+    }
+
+    public CaptureQuery method(Method method) {
+
+        this.method = method.name();
+        return this;
+    }
+
+    public CaptureQuery route(String route) {
+
+        this.route = route;
+        return this;
+    }
+
+    public CaptureQuery path(String path) {
+
+        this.path = path;
+        return this;
+    }
+
+    public CaptureQuery header(String name) {
+
+        headers.add(new String[]{name, null});
+        return this;
+    }
+
+    public CaptureQuery header(String name, String value) {
+
+        headers.add(new String[]{name, value});
+        return this;
+    }
+
+    public CaptureQuery since(long time) {
+
+        this.since = time;
+        return this;
+    }
+
+    public CaptureQuery until(long time) {
+
+        this.until = time;
+        return this;
+    }
+
+    public boolean test(CapturedRequest request) {
+
+        return matches(request);
+    }
+
+    public List<CapturedRequest> list() {
+
+        List<CapturedRequest> matching = new ArrayList<CapturedRequest>();
+        for (CapturedRequest captured : candidates()) {
+            if (matches(captured)) {
+                matching.add(captured);
+            }
+        }
+        return Collections.unmodifiableList(matching);
+    }
+
+    public int count() {
+
+        int count = 0;
+        for (CapturedRequest captured : candidates()) {
+            if (matches(captured)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public CapturedRequest first() {
+
+        for (CapturedRequest captured : candidates()) {
+            if (matches(captured)) {
+                return captured;
+            }
+        }
+        return null;
+    }
+
+    public CapturedRequest last() {
+
+        CapturedRequest last = null;
+        for (CapturedRequest captured : candidates()) {
+            if (matches(captured)) {
+                last = captured;
+            }
+        }
+        return last;
+    }
+
+    public Map<String, Integer> countByMethod() {
+
+        Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        for (CapturedRequest captured : candidates()) {
+            if (matches(captured)) {
+                increment(counts, captured.getMethod());
+            }
+        }
+        return counts;
+    }
+
+    public Map<String, Integer> countByRoute() {
+
+        Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        for (CapturedRequest captured : candidates()) {
+            if (matches(captured) && captured.getRoute() != null) {
+                increment(counts, captured.getRoute());
+            }
+        }
+        return counts;
+    }
+
+    public long totalBodySize() {
+
+        long total = 0;
+        for (CapturedRequest captured : candidates()) {
+            if (matches(captured)) {
+                total += captured.getBodySize();
+            }
+        }
+        return total;
+    }
+
+    private Iterable<CapturedRequest> candidates() {
+
+        return container.getCandidateRequests(method, route, path);
+    }
+
+    private boolean matches(CapturedRequest captured) {
+
+        if (method != null && !method.equals(captured.getMethod())) {
+            return false;
+        }
+        if (route != null && !route.equals(captured.getRoute())) {
+            return false;
+        }
+        if (path != null && !path.equals(captured.getPath())) {
+            return false;
+        }
+
+        long timestamp = captured.getTimestamp();
+        if (timestamp < since || timestamp >= until) {
+            return false;
+        }
+
+        for (String[] header : headers) {
+            String value = captured.getHeader(header[0]);
+            if (value == null || (header[1] != null && !header[1].equals(value))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void increment(Map<String, Integer> counts, String key) {
+
+        Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.container;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.bigtesting.fixd.capture.CapturedRequest;
+import org.bigtesting.fixd.capture.impl.SimpleCapturedRequest;
+
+/**
+ * A fixed-capacity ring of captured requests, which any number of
+ * threads can add to and poll from without locking. When the ring
+ * is full, each new request overwrites the oldest one.
+ * <p>
+ * Every request is given the next sequence number when it is added,
+ * and is stored in the slot for that number. The sequence number is
+ * kept on the request itself, so that adding a request does not
+ * allocate anything. Whoever swaps a request out of its slot,
+ * whether a producer overwriting it or a consumer polling it, is
+ * the one that accounts for it, so the number of dropped requests
+ * is exact.
+ *
+ * @author Luis Antunes
+ */
+class CaptureRing {
+
+    private final int capacity;
+
+    private final AtomicReferenceArray<SimpleCapturedRequest> slots;
+
+    private final AtomicLong writeSequence = new AtomicLong();
+
+    private final AtomicLong readSequence = new AtomicLong();
+
+    private final AtomicLong dropped;
+
+    CaptureRing(int capacity, AtomicLong dropped) {
+
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<SimpleCapturedRequest>(capacity);
+        this.dropped = dropped;
+    }
+
+    void add(SimpleCapturedRequest captured) {
+
+        long sequence = writeSequence.getAndIncrement();
+        captured.setSequence(sequence);
+
+        if (capacity == 0) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        int index = indexOf(sequence);
+        while (true) {
+
+            SimpleCapturedRequest current = slots.get(index);
+            if (current != null && current.getSequence() > sequence) {
+                /*
+                 * producers a full lap ahead have already
+                 * stored a newer request in this slot
+                 */
+                dropped.incrementAndGet();
+                return;
+            }
+
+            captured.setRetained(true);
+            if (slots.compareAndSet(index, current, captured)) {
+                if (current != null) {
+                    current.setRetained(false);
+                    dropped.incrementAndGet();
+                }
+                return;
+            }
+            captured.setRetained(false);
+        }
+    }
+
+    SimpleCapturedRequest poll() {
+
+        while (true) {
+
+            long read = readSequence.get();
+            long write = writeSequence.get();
+            if (read >= write) {
+                return null;
+            }
+
+            if (read < write - capacity) {
+                /* the requests up to here have all been overwritten */
+                readSequence.compareAndSet(read, write - capacity);
+                continue;
+            }
+
+            int index = indexOf(read);
+            SimpleCapturedRequest current = slots.get(index);
+
+            if (current == null || current.getSequence() < read) {
+                /*
+                 * the producer for this sequence has not stored its
+                 * request yet, or another consumer has just taken it
+                 */
+                Thread.yield();
+                continue;
+            }
+
+            if (current.getSequence() > read) {
+                /* this one was overwritten before it could be read */
+                readSequence.compareAndSet(read, read + 1);
+                continue;
+            }
+
+            if (slots.compareAndSet(index, current, null)) {
+                current.setRetained(false);
+                readSequence.compareAndSet(read, read + 1);
+                return current;
+            }
+        }
+    }
+
+    /**
+     * @return the requests currently held by the ring, from
+     * oldest to newest
+     */
+    List<CapturedRequest> snapshot() {
+
+        long write = writeSequence.get();
+        long from = Math.max(readSequence.get(), write - capacity);
+
+        List<CapturedRequest> requests = new ArrayList<CapturedRequest>(
+                (int)Math.max(0, write - from));
+        for (long sequence = from; sequence < write; sequence++) {
+            SimpleCapturedRequest current = slots.get(indexOf(sequence));
+            if (current != null && current.getSequence() == sequence) {
+                requests.add(current);
+            }
+        }
+        return requests;
+    }
+
+    private int indexOf(long sequence) {
+
+        return (int)(sequence % capacity);
+    }
+}
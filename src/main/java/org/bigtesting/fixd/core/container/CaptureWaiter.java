@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.container;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bigtesting.fixd.capture.CapturedRequest;
+import org.bigtesting.fixd.capture.CapturedRequestPredicate;
+
+/**
+ * The pending result of waiting for a request that satisfies a
+ * predicate. The waiter is offered each request as it is captured,
+ * and completes with the first one that satisfies the predicate,
+ * releasing any threads blocked on it.
+ *
+ * @author Luis Antunes
+ */
+class CaptureWaiter implements Future<CapturedRequest> {
+
+    private static final Object CANCELLED = new Object();
+
+    private final CapturedRequestPredicate predicate;
+
+    private final CapturedRequestContainer container;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /* the matching request, the predicate's exception, or CANCELLED */
+    private final AtomicReference<Object> outcome = new AtomicReference<Object>();
+
+    CaptureWaiter(CapturedRequestPredicate predicate, CapturedRequestContainer container) {
+
+        this.predicate = predicate;
+        this.container = container;
+    }
+
+    /**
+     * @return true if this waiter is done, whether or not
+     * it was completed with the given request
+     */
+    boolean offer(CapturedRequest captured) {
+
+        if (isDone()) {
+            return true;
+        }
+
+        try {
+            if (!predicate.test(captured)) {
+                return false;
+            }
+            complete(captured);
+        } catch (RuntimeException e) {
+            complete(e);
+        }
+        return true;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+
+        boolean cancelled = complete(CANCELLED);
+        container.removeWaiter(this);
+        return cancelled;
+    }
+
+    public boolean isCancelled() {
+
+        return outcome.get() == CANCELLED;
+    }
+
+    public boolean isDone() {
+
+        return outcome.get() != null;
+    }
+
+    public CapturedRequest get() throws InterruptedException, ExecutionException {
+
+        done.await();
+        return result();
+    }
+
+    public CapturedRequest get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private boolean complete(Object result) {
+
+        if (outcome.compareAndSet(null, result)) {
+            done.countDown();
+            return true;
+        }
+        return false;
+    }
+
+    private CapturedRequest result() throws ExecutionException {
+
+        Object result = outcome.get();
+        if (result == CANCELLED) {
+            throw new CancellationException();
+        }
+        if (result instanceof Throwable) {
+            throw new ExecutionException((Throwable)result);
+        }
+        return (CapturedRequest)result;
+    }
+}
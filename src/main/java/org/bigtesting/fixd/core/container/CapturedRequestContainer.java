@@ -15,44 +15,347 @@
  */
 package org.bigtesting.fixd.core.container;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.bigtesting.fixd.capture.CaptureQuery;
 import org.bigtesting.fixd.capture.CapturedRequest;
+import org.bigtesting.fixd.capture.CapturedRequestPredicate;
+import org.bigtesting.fixd.capture.impl.CaptureJournal;
 import org.bigtesting.fixd.capture.impl.SimpleCapturedRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * Stores captured requests in one of three ways: on the heap without
+ * limit, which is the default; in a fixed-size ring when a limit is
+ * set; or in a journal file when one is given. Whichever of the limit
+ * or the journal is set last decides where requests are stored.
+ * Requests not yet retrieved are carried over from the heap or the
+ * ring when this changes, but requests in a journal are left in its
+ * file, since reading them all back onto the heap is what the journal
+ * is there to avoid.
  * 
  * @author Luis Antunes
  */
 class CapturedRequestContainer {
     
-    private int capturedRequestLimit = -1;
-
-    private final Queue<CapturedRequest> capturedRequests = 
-            new ConcurrentLinkedQueue<CapturedRequest>();
+    private static final Logger logger = LoggerFactory.getLogger(CapturedRequestContainer.class);
+    
+    private final AtomicLong sequence = new AtomicLong();
+    
+    private final AtomicLong dropped = new AtomicLong();
+    
+    private final Queue<SimpleCapturedRequest> capturedRequests = 
+            new ConcurrentLinkedQueue<SimpleCapturedRequest>();
+    
+    /* null when the number of captured requests is not limited */
+    private volatile CaptureRing ring;
+    
+    /* null when captured requests are kept on the heap */
+    private volatile CaptureJournal journal;
+    
+    /* indexes the requests kept on the heap */
+    private final CaptureIndex index = new CaptureIndex();
+    
+    private final Queue<CaptureWaiter> waiters = new ConcurrentLinkedQueue<CaptureWaiter>();
+    
+    private volatile boolean closed = false;
+    
+    public Collection<CapturedRequest> getCapturedRequests() {
+        
+        return getCapturedRequests(null, null);
+    }
     
-    public Queue<CapturedRequest> getCapturedRequests() {
+    /**
+     * @return the captured requests with the given method and path;
+     * either may be null, in which case requests are not filtered by it
+     */
+    public Collection<CapturedRequest> getCapturedRequests(String method, String path) {
         
-        return capturedRequests;
+        CaptureJournal currentJournal = journal;
+        if (currentJournal != null) {
+            return new JournalView(currentJournal, method, null, path);
+        }
+        
+        CaptureRing currentRing = ring;
+        List<CapturedRequest> requests = currentRing != null ? currentRing.snapshot() : 
+            new ArrayList<CapturedRequest>(capturedRequests);
+        if (method != null || path != null) {
+            List<CapturedRequest> matching = new ArrayList<CapturedRequest>();
+            for (CapturedRequest request : requests) {
+                if ((method == null || method.equals(request.getMethod())) && 
+                        (path == null || path.equals(request.getPath()))) {
+                    matching.add(request);
+                }
+            }
+            requests = matching;
+        }
+        return Collections.unmodifiableList(requests);
+    }
+    
+    /**
+     * @return requests that include all those with the given method,
+     * route and path, any of which may be null; the requests are read
+     * from the journal or an index where possible, but may still need
+     * to be filtered
+     */
+    public Iterable<CapturedRequest> getCandidateRequests(String method, String route, String path) {
+        
+        CaptureJournal currentJournal = journal;
+        if (currentJournal != null) {
+            return new JournalView(currentJournal, method, route, path);
+        }
+        
+        List<CapturedRequest> candidates = index.candidates(method, route);
+        if (candidates != null) {
+            return candidates;
+        }
+        return getCapturedRequests();
+    }
+    
+    public CaptureQuery newQuery() {
+        
+        return new CaptureQueryImpl(this);
+    }
+    
+    /**
+     * @return a future that completes with the first request, either
+     * captured already and not yet retrieved, or captured from now on,
+     * that satisfies the given predicate
+     */
+    public Future<CapturedRequest> awaitCapturedRequest(CapturedRequestPredicate predicate) {
+        
+        CaptureWaiter waiter = new CaptureWaiter(predicate, this);
+        
+        /* 
+         * registering before looking through the requests already 
+         * captured ensures that no request is missed in between
+         */
+        waiters.add(waiter);
+        for (CapturedRequest captured : getCapturedRequests()) {
+            if (waiter.offer(captured)) {
+                waiters.remove(waiter);
+                break;
+            }
+        }
+        return waiter;
+    }
+    
+    void removeWaiter(CaptureWaiter waiter) {
+        
+        waiters.remove(waiter);
     }
     
     public CapturedRequest nextCapturedRequest() {
         
-        return capturedRequests.poll();
+        CaptureJournal currentJournal = journal;
+        if (currentJournal != null) {
+            return currentJournal.poll();
+        }
+        CaptureRing currentRing = ring;
+        if (currentRing != null) {
+            return currentRing.poll();
+        }
+        SimpleCapturedRequest captured = capturedRequests.poll();
+        if (captured != null) {
+            captured.setRetained(false);
+        }
+        return captured;
     }
     
-    public void setCapturedRequestLimit(int limit) {
+    /**
+     * Discards the captured requests that have not been retrieved,
+     * wherever they are stored. They are not counted as dropped.
+     */
+    public void clearCapturedRequests() {
         
-        this.capturedRequestLimit = limit;
+        CaptureJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.clear();
+            return;
+        }
+        CaptureRing currentRing = ring;
+        if (currentRing != null) {
+            while (currentRing.poll() != null) {
+                /* each request is discarded as it is taken */
+            }
+            return;
+        }
+        SimpleCapturedRequest captured;
+        while ((captured = capturedRequests.poll()) != null) {
+            captured.setRetained(false);
+        }
+    }
+    
+    /**
+     * @return the number of requests that were discarded, without
+     * having been polled, to keep within the captured request limit,
+     * or because they could not be written to the journal
+     */
+    public long getDroppedCapturedRequests() {
+        
+        return dropped.get();
+    }
+    
+    /*
+     * the limit and journal are meant to be set before any requests 
+     * are made; a request captured by another thread while either is 
+     * being changed may not be carried over, and neither are the 
+     * requests in a journal being replaced
+     */
+    public synchronized void setCapturedRequestLimit(int limit) {
+        
+        CaptureRing next = limit > -1 ? new CaptureRing(limit, dropped) : null;
+        List<SimpleCapturedRequest> pending = drain();
+        ring = next;
+        closeJournal();
+        index.clear();
+        
+        for (SimpleCapturedRequest request : pending) {
+            store(null, next, request);
+        }
+    }
+    
+    /**
+     * Stores captured requests in the given file, which is truncated
+     * first, or on the heap again if the file is null.
+     */
+    public synchronized void setCaptureJournal(File file) throws IOException {
+        
+        CaptureJournal next = file != null ? new CaptureJournal(file) : null;
+        List<SimpleCapturedRequest> pending = drain();
+        ring = null;
+        closeJournal();
+        journal = next;
+        index.clear();
+        
+        for (SimpleCapturedRequest request : pending) {
+            store(next, null, request);
+        }
     }
     
     public void addCapturedRequest(SimpleCapturedRequest captured) {
         
-        capturedRequests.add(captured);
+        if (closed) {
+            return;
+        }
+        store(journal, ring, captured);
+        
+        if (!waiters.isEmpty()) {
+            for (Iterator<CaptureWaiter> it = waiters.iterator(); it.hasNext();) {
+                if (it.next().offer(captured)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+    
+    private void store(CaptureJournal currentJournal, CaptureRing currentRing, 
+            SimpleCapturedRequest captured) {
+        
+        if (currentJournal != null) {
+            try {
+                currentJournal.append(captured);
+            } catch (IOException e) {
+                logger.error("could not write captured request to journal", e);
+                dropped.incrementAndGet();
+            }
+        } else if (currentRing != null) {
+            currentRing.add(captured);
+            index.add(captured);
+        } else {
+            captured.setSequence(sequence.getAndIncrement());
+            captured.setRetained(true);
+            capturedRequests.add(captured);
+            index.add(captured);
+        }
+    }
+    
+    private List<SimpleCapturedRequest> drain() {
+        
+        List<SimpleCapturedRequest> pending = new ArrayList<SimpleCapturedRequest>();
+        SimpleCapturedRequest captured;
+        while ((captured = capturedRequests.poll()) != null) {
+            captured.setRetained(false);
+            pending.add(captured);
+        }
+        if (ring != null) {
+            while ((captured = ring.poll()) != null) {
+                pending.add(captured);
+            }
+        }
+        return pending;
+    }
+    
+    /**
+     * Closes the journal, if there is one, releasing its file and the
+     * memory it has mapped. Requests are no longer captured once the
+     * container is closed.
+     */
+    public synchronized void close() {
+        
+        closed = true;
+        closeJournal();
+    }
+    
+    private void closeJournal() {
+        
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.error("could not close capture journal", e);
+            }
+            journal = null;
+        }
+    }
+    
+    /*
+     * a view of the requests in a journal, which are only read 
+     * from the journal as the view is iterated over
+     */
+    private static class JournalView extends AbstractCollection<CapturedRequest> {
+        
+        private final CaptureJournal journal;
+        private final String method;
+        private final String route;
+        private final String path;
+        
+        JournalView(CaptureJournal journal, String method, String route, String path) {
+            this.journal = journal;
+            this.method = method;
+            this.route = route;
+            this.path = path;
+        }
+        
+        @Override
+        public Iterator<CapturedRequest> iterator() {
+            return journal.iterator(method, route, path);
+        }
         
-        if (capturedRequestLimit > -1) {
-            while(capturedRequests.size() > capturedRequestLimit) capturedRequests.remove();
+        @Override
+        public int size() {
+            
+            if (method == null && route == null && path == null) {
+                return (int)Math.min(Integer.MAX_VALUE, journal.size());
+            }
+            
+            int size = 0;
+            for (Iterator<CapturedRequest> it = iterator(); it.hasNext(); it.next()) {
+                size++;
+            }
+            return size;
         }
     }
 }
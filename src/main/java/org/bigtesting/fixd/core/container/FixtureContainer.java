@@ -15,21 +15,38 @@
  */
 package org.bigtesting.fixd.core.container;
 
-import java.util.AbstractMap.SimpleImmutableEntry;
-import java.util.Queue;
-import java.util.Set;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import org.bigtesting.fixd.LatencyStats;
 import org.bigtesting.fixd.Method;
+import org.bigtesting.fixd.SubscriberStats;
+import org.bigtesting.fixd.capture.CapturePolicy;
+import org.bigtesting.fixd.capture.CaptureQuery;
+import org.bigtesting.fixd.capture.CapturedFrame;
 import org.bigtesting.fixd.capture.CapturedRequest;
+import org.bigtesting.fixd.capture.CapturedRequestPredicate;
 import org.bigtesting.fixd.capture.impl.SimpleCapturedRequest;
 import org.bigtesting.fixd.core.RequestHandlerImpl;
 import org.bigtesting.fixd.core.RequestMarshallerImpl;
 import org.bigtesting.fixd.core.RequestUnmarshallerImpl;
 import org.bigtesting.fixd.core.Upon;
 import org.bigtesting.fixd.core.async.AsyncHandler;
+import org.bigtesting.fixd.core.async.Throttle;
+import org.bigtesting.fixd.core.body.EventResponseBody;
+import org.bigtesting.fixd.core.body.EventStreamResponseBody;
 import org.bigtesting.fixd.core.body.ResponseBody;
 import org.bigtesting.fixd.core.body.StringResponseBody;
+import org.bigtesting.fixd.core.socket.WebSocketHandlerImpl;
+import org.bigtesting.fixd.core.socket.WebSocketRouter;
 import org.bigtesting.fixd.request.impl.SimpleHttpRequest;
 import org.bigtesting.fixd.session.Session;
 import org.bigtesting.fixd.session.SessionHandler;
@@ -48,6 +65,10 @@ public class FixtureContainer implements Container {
     
     private static final Logger logger = LoggerFactory.getLogger(FixtureContainer.class);
     
+    private static final ResponseBody EMPTY_BODY = new StringResponseBody("");
+    
+    private static final int JOURNALED_FRAME_LIMIT = 10000;
+    
     private final RequestResolver requestResolver = new RequestResolver();
     
     private final MarshallerContainer marshallerContainer = new MarshallerContainer();
@@ -56,14 +77,52 @@ public class FixtureContainer implements Container {
     
     private final CapturedRequestContainer capturedRequestContainer = new CapturedRequestContainer();
     
+    private volatile CapturePolicy capturePolicy = CapturePolicy.ALL;
+    
+    /* applies to the responses of any handler that does not set its own */
+    private volatile Throttle defaultThrottle = Throttle.NONE;
+    
+    /*
+     * delays, periodic responses and subscribe timeouts are all 
+     * scheduled on this one thread, rather than each having a timer
+     */
+    private final ScheduledExecutorService scheduler = 
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ServerFixtureScheduler");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    
     private final AsyncHandler asyncHandler;
     
+    private final WebSocketRouter webSocketRouter;
+    
+    /*
+     * template bodies are rendered before the handler returns, so 
+     * the request they are rendered with can be re-used by the thread
+     */
+    private final ThreadLocal<SimpleHttpRequest> templateRequests = 
+            new ThreadLocal<SimpleHttpRequest>() {
+        @Override
+        protected SimpleHttpRequest initialValue() {
+            return new SimpleHttpRequest(null, null, null, 
+                    marshallerContainer.unmarshallerProvider());
+        }
+    };
+    
     public FixtureContainer() {
-        asyncHandler = new AsyncHandler(Executors.newCachedThreadPool());
+        this(Executors.newCachedThreadPool());
     }
     
     public FixtureContainer(int aysncThreadPoolSize) {
-        asyncHandler = new AsyncHandler(Executors.newFixedThreadPool(aysncThreadPoolSize));
+        this(Executors.newFixedThreadPool(aysncThreadPoolSize));
+    }
+    
+    public FixtureContainer(ExecutorService asyncExecutor) {
+        asyncHandler = new AsyncHandler(asyncExecutor, scheduler);
+        webSocketRouter = new WebSocketRouter(scheduler, asyncExecutor);
     }
     
     public HandlerKey addHandler(RequestHandlerImpl handler, 
@@ -81,16 +140,98 @@ public void addUponHandler(Upon upon) {
         requestResolver.addUponHandler(this, upon);
     }
     
-    public Queue<CapturedRequest> getCapturedRequests() {
+    public WebSocketHandlerImpl addWebSocketHandler(String resource) {
+        return webSocketRouter.addHandler(this, resource);
+    }
+    
+    /**
+     * @return the router for WebSocket upgrade requests, 
+     * which passes any other request on to this container
+     */
+    public WebSocketRouter getWebSocketRouter() {
+        return webSocketRouter;
+    }
+    
+    public Collection<CapturedFrame> getCapturedFrames() {
+        return webSocketRouter.getCapturedFrames();
+    }
+    
+    public CapturedFrame nextCapturedFrame() {
+        return webSocketRouter.nextCapturedFrame();
+    }
+    
+    public long getDroppedCapturedFrames() {
+        return webSocketRouter.getDroppedCapturedFrames();
+    }
+    
+    public Collection<CapturedRequest> getCapturedRequests() {
         return capturedRequestContainer.getCapturedRequests();
     }
     
+    public long getDroppedCapturedRequests() {
+        return capturedRequestContainer.getDroppedCapturedRequests();
+    }
+    
+    public List<SubscriberStats> getSubscriberStats() {
+        return asyncHandler.getSubscriberStats();
+    }
+    
+    public long getDroppedBroadcasts() {
+        return asyncHandler.getDroppedBroadcasts();
+    }
+    
+    public LatencyStats getLatencyStats() {
+        return asyncHandler.getLatencyStats();
+    }
+    
+    public Collection<CapturedRequest> getCapturedRequests(String method, String path) {
+        return capturedRequestContainer.getCapturedRequests(method, path);
+    }
+    
+    public CaptureQuery newCaptureQuery() {
+        return capturedRequestContainer.newQuery();
+    }
+    
+    public Future<CapturedRequest> awaitCapturedRequest(CapturedRequestPredicate predicate) {
+        return capturedRequestContainer.awaitCapturedRequest(predicate);
+    }
+    
     public CapturedRequest nextCapturedRequest() {
         return capturedRequestContainer.nextCapturedRequest();
     }
     
+    public void clearCapturedRequests() {
+        capturedRequestContainer.clearCapturedRequests();
+    }
+    
     public void setCapturedRequestLimit(int limit) {
         capturedRequestContainer.setCapturedRequestLimit(limit);
+        webSocketRouter.setCapturedFrameLimit(limit);
+    }
+    
+    /*
+     * the journal only holds requests, so captured frames are
+     * kept in memory, up to a fixed limit, while it is in use
+     */
+    public void setCaptureJournal(File file) throws IOException {
+        capturedRequestContainer.setCaptureJournal(file);
+        webSocketRouter.setCapturedFrameLimit(file != null ? JOURNALED_FRAME_LIMIT : -1);
+    }
+    
+    public void setCapturePolicy(CapturePolicy capturePolicy) {
+        this.capturePolicy = capturePolicy;
+    }
+    
+    public void setMaxThroughput(long bytesPerSecond) {
+        this.defaultThrottle = defaultThrottle.withMaxThroughput(bytesPerSecond);
+    }
+    
+    public void setTimeToFirstByte(long delay, TimeUnit delayUnit) {
+        this.defaultThrottle = defaultThrottle.withFirstByteDelay(delayUnit.toNanos(delay));
+    }
+    
+    public void setChunkJitter(long maxJitter, TimeUnit jitterUnit) {
+        this.defaultThrottle = defaultThrottle.withChunkJitter(jitterUnit.toNanos(maxJitter));
     }
     
     public void addContentMarshaller(String contentType, RequestMarshallerImpl marshaller) {
@@ -105,42 +246,68 @@ public void handle(Request request, Response response) {
 
         try {
             
-            SimpleCapturedRequest captured = new SimpleCapturedRequest(request);
+            ResolvedRequest resolved = requestResolver.resolve(request);
+            
+            SimpleCapturedRequest captured = new SimpleCapturedRequest(request, 
+                    resolved.route != null ? resolved.route.getResourcePath() : null, 
+                    capturePolicy);
             capturedRequestContainer.addCapturedRequest(captured);
             
             String responseContentType = "text/plain";
-            ResponseBody responseBody = new StringResponseBody("");
+            ResponseBody responseBody = EMPTY_BODY;
             int handlerStatusCode = Status.OK.code;
             
-            ResolvedRequest resolved = requestResolver.resolve(request);
             if (resolved.errorStatus != null) {
                 response.setStatus(resolved.errorStatus);
-                sendAndCommitResponse(response, responseContentType, responseBody);
+                sendAndCommitResponse(request, response, responseContentType, responseBody);
                 return;
             }
             
-            if (requestResolver.requestIsForUponHandler(resolved)) {
+            for (Upon upon : resolved.upons) {
                 
-                asyncHandler.broadcastToSubscribers(request, resolved.route, 
-                        requestResolver.getUpon(resolved), captured);
-                /* continue handling the request, as it needs to 
-                 * return a normal response */
+                if (upon.getListener() != null) {
+                    
+                    Session session = sessionManager.getSessionIfExists(request);
+                    upon.getListener().upon(
+                            new SimpleHttpRequest(request, session, resolved.route, 
+                                    marshallerContainer.unmarshallerProvider()), captured);
+                    
+                } else {
+                    
+                    asyncHandler.broadcastToSubscribers(request, resolved.route, 
+                            upon, captured, 
+                            marshallerContainer.marshallerProvider(), 
+                            marshallerContainer.unmarshallerProvider());
+                }
             }
+            /* continue handling the request, as it needs to 
+             * return a normal response */
             
             /* create a new session if required */
             SessionHandler sessionHandler = resolved.handler.sessionHandler();
             if (sessionHandler != null) {
                 sessionManager.createNewSession(request, response, resolved.route, sessionHandler, 
-                        marshallerContainer.newUnmarshallerProvider());
+                        marshallerContainer.unmarshallerProvider());
             }
             
             /* set the response body */
             if (!resolved.handler.isSuspend()) {
-                Session session = sessionManager.getSessionIfExists(request);
-                ResponseBody handlerBody = resolved.handler.body(
-                        new SimpleHttpRequest(request, session, resolved.route, 
-                                marshallerContainer.newUnmarshallerProvider()), 
-                        response, marshallerContainer.newMarshallerProvider());
+                ResponseBody handlerBody;
+                if (resolved.handler.isEventStream()) {
+                    /* each time the body is sent, it is sent as a new event */
+                    Session session = sessionManager.getSessionIfExists(request);
+                    handlerBody = new EventResponseBody(resolved.handler.eventName(), 
+                            resolved.handler.eventData(
+                                    new SimpleHttpRequest(request, session, resolved.route, 
+                                            marshallerContainer.unmarshallerProvider()), 
+                                    marshallerContainer.marshallerProvider()));
+                } else if (resolved.handler.hasStaticBody()) {
+                    /* a static body doesn't depend on the request or session */
+                    handlerBody = resolved.handler.staticBody();
+                } else {
+                    Session session = sessionManager.getSessionIfExists(request);
+                    handlerBody = body(resolved, request, response, session);
+                }
                 if (handlerBody != null && handlerBody.hasContent()) {
                     responseBody = handlerBody;
                 }
@@ -154,6 +321,9 @@ public void handle(Request request, Response response) {
                 
                 responseContentType = handlerContentType;
             }
+            if (resolved.handler.isEventStream()) {
+                responseContentType = EventStreamResponseBody.CONTENT_TYPE;
+            }
             
             /* set the response status code */
             if (handlerStatusCode == -1) {
@@ -162,36 +332,57 @@ public void handle(Request request, Response response) {
             response.setCode(handlerStatusCode);
             
             /* set any headers */
-            Set<SimpleImmutableEntry<String, String>> headers = 
-                    resolved.handler.headers();
-            for (SimpleImmutableEntry<String, String> header : headers) {
-                response.addValue(header.getKey(), header.getValue());
-            }
+            resolved.handler.headers().addTo(response);
             
-            /* handle the response */
-            if (resolved.handler.isAsync()) {
+            /* handle the response; a throttled response is sent from the async threads */
+            Throttle throttle = resolved.handler.throttle(defaultThrottle);
+            if (resolved.handler.isAsync() || throttle != null) {
                 asyncHandler.doAsync(request, response, resolved.handler, responseContentType, responseBody, 
-                        marshallerContainer.newMarshallerProvider(), 
-                        marshallerContainer.newUnmarshallerProvider());
+                        marshallerContainer.marshallerProvider(), 
+                        marshallerContainer.unmarshallerProvider(), 
+                        throttle);
             } else {
-                sendAndCommitResponse(response, responseContentType, responseBody);
+                sendAndCommitResponse(request, response, responseContentType, responseBody);
             }
             
         } catch (Throwable e) {
             
             logger.error("internal server error", e);
             response.setStatus(Status.INTERNAL_SERVER_ERROR);
-            sendAndCommitResponse(response, "text/plain", new StringResponseBody(""));
+            sendAndCommitResponse(request, response, "text/plain", EMPTY_BODY);
         }
     }
     
     public void stop() {
         
+        webSocketRouter.stop();
         asyncHandler.stop();
+        scheduler.shutdownNow();
+        capturedRequestContainer.close();
+    }
+
+    private ResponseBody body(ResolvedRequest resolved, Request request, 
+            Response response, Session session) {
+        
+        if (!resolved.handler.hasTemplateBody()) {
+            return resolved.handler.body(
+                    new SimpleHttpRequest(request, session, resolved.route, 
+                            marshallerContainer.unmarshallerProvider()), 
+                    response, marshallerContainer.marshallerProvider());
+        }
+        
+        SimpleHttpRequest httpRequest = templateRequests.get();
+        httpRequest.reset(request, session, resolved.route);
+        try {
+            return resolved.handler.body(httpRequest, response, 
+                    marshallerContainer.marshallerProvider());
+        } finally {
+            httpRequest.reset(null, null, null);
+        }
     }
 
-    private void sendAndCommitResponse(Response response, 
+    private void sendAndCommitResponse(Request request, Response response, 
             String responseContentType, ResponseBody responseBody) {
-        responseBody.sendAndCommit(response, responseContentType);
+        responseBody.sendAndCommit(request, response, responseContentType);
     }
 }
@@ -34,6 +34,14 @@ public HandlerKey(String method, Route route, String contentType) {
         this.contentType = contentType;
     }
     
+    public String method() {
+        return method;
+    }
+    
+    public Route route() {
+        return route;
+    }
+    
     public String contentType() {
         return contentType;
     }
@@ -0,0 +1,572 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.container;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.bigtesting.fixd.Method;
+import org.bigtesting.fixd.core.RequestHandlerImpl;
+import org.bigtesting.fixd.core.Upon;
+import org.bigtesting.routd.NamedParameterElement;
+import org.bigtesting.routd.PathElement;
+import org.bigtesting.routd.PathElementComparator;
+import org.bigtesting.routd.Route;
+import org.bigtesting.routd.RouteHelper;
+import org.bigtesting.routd.SplatParameterElement;
+import org.bigtesting.routd.StaticPathElement;
+
+/**
+ * An immutable dispatch structure that resolves the path, method and
+ * content type of a request to a pre-built {@link ResolvedRequest} in a
+ * single walk. It is compiled from all the registered handlers once
+ * handlers have been added, and follows the same matching rules as the
+ * routd TreeRouter: the children of a node are tried in the router's
+ * order, the first matching child is taken, and for the last path
+ * element a child with a route is preferred.
+ * <p>
+ * Path elements are visited in place, without being copied out of the
+ * request path, and literal elements are found through a hash table
+ * keyed on the characters of the element. Only the other children
+ * ordered before the literal one found are tried, so the cost of a
+ * match does not grow with the number of literal siblings.
+ *
+ * @author Luis Antunes
+ */
+class HandlerTrie {
+
+    static final HandlerTrie EMPTY = new HandlerTrie(null);
+
+    private static final Method[] METHODS = Method.values();
+
+    private static final String PATH_SEPARATOR = RouteHelper.PATH_ELEMENT_SEPARATOR;
+
+    private final Node root;
+
+    private HandlerTrie(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * @param routes each route added, once, in the order it was first added
+     * @param handlers the handlers registered, by key
+     * @param uponHandlers the Upon handlers registered, by key
+     */
+    static HandlerTrie compile(Collection<Route> routes,
+            Map<HandlerKey, RequestHandlerImpl> handlers, Map<HandlerKey, List<Upon>> uponHandlers) {
+
+        if (routes.isEmpty()) {
+            return EMPTY;
+        }
+
+        Node root = new Node(new StaticPathElement(PATH_SEPARATOR, 0));
+        for (Route route : routes) {
+            root.insert(elementsOf(route)).route = route;
+        }
+
+        for (Map.Entry<HandlerKey, RequestHandlerImpl> entry : handlers.entrySet()) {
+
+            HandlerKey key = entry.getKey();
+            Node node = root.find(elementsOf(key.route()));
+            /* the node's route is the last distinct one added for those path elements */
+            if (node == null || !node.route.equals(key.route())) {
+                continue;
+            }
+            List<Upon> upons = uponHandlers.get(key);
+            ResolvedRequest resolved = new ResolvedRequest(node.route, entry.getValue(), 
+                    upons == null ? ResolvedRequest.NO_UPONS : upons.toArray(new Upon[upons.size()]));
+            node.bind(Method.valueOf(key.method()), key.contentType(), resolved);
+        }
+
+        root.freeze();
+        return new HandlerTrie(root);
+    }
+
+    /**
+     * @param method the request method
+     * @param path the undecoded request path, without the query
+     * @param contentType the request content type, or null if it has none
+     * @return the resolved request, or one of the shared error results
+     */
+    ResolvedRequest resolve(String method, String path, String contentType) {
+
+        Node node = route(path);
+        if (node == null || node.route == null) {
+            return ResolvedRequest.NOT_FOUND;
+        }
+
+        int ordinal = ordinalOf(method);
+        if (ordinal == -1) {
+            return ResolvedRequest.METHOD_NOT_ALLOWED;
+        }
+        return node.resolve(ordinal, contentType);
+    }
+
+    private Node route(String path) {
+
+        if (root == null) {
+            return null;
+        }
+
+        String decoded = path;
+        if (path.indexOf('%') != -1 || path.indexOf('+') != -1) {
+            decoded = RouteHelper.urlDecodeForRouting(path);
+        }
+
+        int offset = decoded.startsWith(PATH_SEPARATOR) ? 1 : 0;
+        int remaining = countElements(decoded, offset);
+        if (remaining == 0) {
+            Node splat = root.splatChild();
+            if (splat != null && root.route == null) {
+                return splat;
+            }
+            return root;
+        }
+        if (decoded.trim().endsWith(PATH_SEPARATOR)) {
+            remaining++;
+        }
+
+        Node current = root;
+        int start = offset;
+        int length = decoded.length();
+        while (remaining > 0) {
+
+            String elem;
+            int elemStart;
+            int elemEnd;
+            if (start < length) {
+                int end = decoded.indexOf('/', start);
+                if (end == -1) end = length;
+                if (isBlank(decoded, start, end)) {
+                    start = end + 1;
+                    continue;
+                }
+                elem = decoded;
+                elemStart = start;
+                elemEnd = end;
+                start = end + 1;
+            } else {
+                /* the trailing path separator */
+                elem = PATH_SEPARATOR;
+                elemStart = 0;
+                elemEnd = 1;
+            }
+
+            remaining--;
+            current = current.matchingChild(elem, elemStart, elemEnd, remaining == 0);
+            if (current == null) {
+                return null;
+            }
+            if (current.isSplat() && current.children.length == 0) {
+                return current;
+            }
+        }
+        return current;
+    }
+
+    private static int countElements(String path, int offset) {
+
+        int count = 0;
+        int start = offset;
+        int length = path.length();
+        while (start < length) {
+            int end = path.indexOf('/', start);
+            if (end == -1) end = length;
+            if (!isBlank(path, start, end)) {
+                count++;
+            }
+            start = end + 1;
+        }
+        return count;
+    }
+
+    private static boolean isBlank(String s, int start, int end) {
+
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int ordinalOf(String method) {
+
+        for (int i = 0; i < METHODS.length; i++) {
+            if (METHODS[i].name().equals(method)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<PathElement> elementsOf(Route route) {
+
+        List<PathElement> elements = route.getPathElements();
+        if (!elements.isEmpty() && route.endsWithPathSeparator()) {
+            elements.add(new StaticPathElement(PATH_SEPARATOR, elements.size()));
+        }
+        return elements;
+    }
+
+    /*------------------------------------------*/
+
+    private static class Node {
+
+        private static final int LITERAL = 0;
+        private static final int NAMED = 1;
+        private static final int SPLAT = 2;
+        private static final int REGEX = 3;
+
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private static final char LINE_SEPARATOR = (char)0x2028;
+        private static final char PARAGRAPH_SEPARATOR = (char)0x2029;
+
+        private static final Comparator<Node> ORDER = new Comparator<Node>() {
+
+            private final PathElementComparator comparator = new PathElementComparator();
+
+            public int compare(Node n1, Node n2) {
+                return comparator.compare(n1.sortKey(), n2.sortKey());
+            }
+        };
+
+        private final PathElement element;
+        private final int kind;
+        private final Pattern pattern;
+
+        private Route route;
+
+        private List<Node> childList = new ArrayList<Node>();
+        private Node[] children = NO_CHILDREN;
+        private Node[] others = NO_CHILDREN;
+        private LiteralTable literals;
+
+        /* for a literal child, the number of non-literal siblings ordered before it */
+        private int rank;
+
+        /* indexed by method ordinal, then searched by content type */
+        private String[][] contentTypes = new String[METHODS.length][];
+        private ResolvedRequest[][] bindings = new ResolvedRequest[METHODS.length][];
+
+        Node(PathElement element) {
+
+            this.element = element;
+            this.kind = kindOf(element);
+            this.pattern = compilePattern(element);
+        }
+
+        boolean isSplat() {
+            return kind == SPLAT;
+        }
+
+        Node insert(List<PathElement> elements) {
+
+            Node current = this;
+            for (PathElement elem : elements) {
+                Node child = current.childFor(elem);
+                if (child == null) {
+                    child = new Node(elem);
+                    current.childList.add(child);
+                }
+                current = child;
+            }
+            return current;
+        }
+
+        Node find(List<PathElement> elements) {
+
+            Node current = this;
+            for (PathElement elem : elements) {
+                current = current.childFor(elem);
+                if (current == null) {
+                    return null;
+                }
+            }
+            return current;
+        }
+
+        private Node childFor(PathElement elem) {
+
+            for (Node child : childList) {
+                if (child.element.equals(elem)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        Node splatChild() {
+
+            for (Node child : children) {
+                if (child.isSplat()) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        void bind(Method method, String contentType, ResolvedRequest resolved) {
+
+            int ordinal = method.ordinal();
+            String[] types = contentTypes[ordinal];
+            ResolvedRequest[] resolvedRequests = bindings[ordinal];
+            if (types == null) {
+                contentTypes[ordinal] = new String[] {contentType};
+                bindings[ordinal] = new ResolvedRequest[] {resolved};
+                return;
+            }
+
+            String[] newTypes = new String[types.length + 1];
+            ResolvedRequest[] newBindings = new ResolvedRequest[types.length + 1];
+            System.arraycopy(types, 0, newTypes, 0, types.length);
+            System.arraycopy(resolvedRequests, 0, newBindings, 0, types.length);
+            newTypes[types.length] = contentType;
+            newBindings[types.length] = resolved;
+            contentTypes[ordinal] = newTypes;
+            bindings[ordinal] = newBindings;
+        }
+
+        ResolvedRequest resolve(int ordinal, String contentType) {
+
+            String[] types = contentTypes[ordinal];
+            if (types != null) {
+                for (int i = 0; i < types.length; i++) {
+                    if (types[i] == null ? contentType == null : types[i].equals(contentType)) {
+                        return bindings[ordinal][i];
+                    }
+                }
+            }
+            return ResolvedRequest.METHOD_NOT_ALLOWED;
+        }
+
+        void freeze() {
+
+            /* 
+             * the sort is stable, so sorting once gives the same order as 
+             * the router, which sorts the children each time one is added
+             */
+            Collections.sort(childList, ORDER);
+            children = childList.toArray(new Node[childList.size()]);
+            childList = null;
+
+            List<Node> literalChildren = new ArrayList<Node>();
+            List<Node> otherChildren = new ArrayList<Node>();
+            for (Node child : children) {
+                if (child.kind == LITERAL) {
+                    child.rank = otherChildren.size();
+                    literalChildren.add(child);
+                } else {
+                    otherChildren.add(child);
+                }
+                child.freeze();
+            }
+            if (!literalChildren.isEmpty()) {
+                literals = new LiteralTable(literalChildren);
+                others = otherChildren.toArray(new Node[otherChildren.size()]);
+            } else {
+                others = children;
+            }
+        }
+
+        /*
+         * elements containing line terminators are matched with the
+         * router's patterns, as their anchors treat such characters
+         * specially
+         */
+        Node matchingChild(String s, int start, int end, boolean last) {
+
+            if (!isPlain(s, start, end)) {
+                return select(children, children.length, null, s, start, end, false, last);
+            }
+            Node literal = literals != null ? literals.get(s, start, end) : null;
+            int before = literal != null ? literal.rank : others.length;
+            return select(others, before, literal, s, start, end, true, last);
+        }
+
+        /*
+         * tries the candidates in order, with the literal child, if any,
+         * ordered after the first ones given
+         */
+        private static Node select(Node[] candidates, int before, Node literal,
+                String s, int start, int end, boolean plain, boolean last) {
+
+            Node first = null;
+            for (int i = 0; i < before; i++) {
+
+                Node child = candidates[i];
+                if (!child.matches(s, start, end, plain)) {
+                    continue;
+                }
+                if (!last || child.route != null) {
+                    return child;
+                }
+                if (first == null) {
+                    first = child;
+                }
+            }
+            if (literal == null) {
+                return first;
+            }
+            if (!last || literal.route != null) {
+                return literal;
+            }
+            if (first == null) {
+                first = literal;
+            }
+            for (int i = before; i < candidates.length; i++) {
+
+                Node child = candidates[i];
+                if (child.matches(s, start, end, plain) && child.route != null) {
+                    return child;
+                }
+            }
+            return first;
+        }
+
+        private boolean matches(String s, int start, int end, boolean plain) {
+
+            if (!plain || kind == REGEX || kind == LITERAL) {
+                return pattern.matcher(s).region(start, end).find();
+            }
+            switch (kind) {
+            case NAMED:
+                int separator = s.indexOf('/', start);
+                return separator == -1 || separator >= end;
+            default:
+                return true;
+            }
+        }
+
+        private String sortKey() {
+
+            if (element instanceof NamedParameterElement) {
+                return RouteHelper.PARAM_PREFIX + element.name();
+            }
+            return element.name();
+        }
+
+        private static boolean isPlain(String s, int start, int end) {
+
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (c == '\n' || c == '\r' || c == '\u0085' ||
+                        c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int kindOf(PathElement element) {
+
+            if (element instanceof NamedParameterElement) {
+                return ((NamedParameterElement)element).hasRegex() ? REGEX : NAMED;
+            }
+            if (element instanceof SplatParameterElement) {
+                return SPLAT;
+            }
+            return isLiteral(element.name()) ? LITERAL : REGEX;
+        }
+
+        private static boolean isLiteral(String name) {
+
+            for (int i = 0; i < name.length(); i++) {
+                if ("\\^$.|?*+()[]{}<>".indexOf(name.charAt(i)) != -1) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /* the same patterns the routd TreeNode uses */
+        private static Pattern compilePattern(PathElement element) {
+
+            StringBuilder sb = new StringBuilder("^");
+            if (element instanceof NamedParameterElement) {
+                NamedParameterElement named = (NamedParameterElement)element;
+                if (named.hasRegex()) {
+                    sb.append("(").append(named.regex()).append(")");
+                } else {
+                    sb.append("([^").append(PATH_SEPARATOR).append("]+)");
+                }
+            } else if (element instanceof SplatParameterElement) {
+                sb.append("(.*)");
+            } else {
+                sb.append(RouteHelper.escapeNonCustomRegex(element.name()));
+            }
+            sb.append("$");
+            return Pattern.compile(sb.toString());
+        }
+    }
+
+    /*
+     * an open-addressing table of the literal children of a node,
+     * which can be probed with a region of a string
+     */
+    private static class LiteralTable {
+
+        private final String[] keys;
+        private final Node[] nodes;
+        private final int mask;
+
+        LiteralTable(List<Node> literalChildren) {
+
+            int size = Integer.highestOneBit(literalChildren.size() * 2 + 1) << 1;
+            keys = new String[size];
+            nodes = new Node[size];
+            mask = size - 1;
+            for (Node child : literalChildren) {
+                String key = child.element.name();
+                int i = spread(key.hashCode()) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                nodes[i] = child;
+            }
+        }
+
+        Node get(String s, int start, int end) {
+
+            int length = end - start;
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + s.charAt(i);
+            }
+
+            int i = spread(hash) & mask;
+            String key;
+            while ((key = keys[i]) != null) {
+                if (key.length() == length && key.regionMatches(0, s, start, length)) {
+                    return nodes[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -37,6 +37,24 @@ class MarshallerContainer {
     private final Map<String, RequestUnmarshallerImpl> contentUnmarshallers = 
             new ConcurrentHashMap<String, RequestUnmarshallerImpl>();
     
+    /*
+     * the providers look up the marshallers when they are asked for 
+     * one, so a single instance of each can serve every request
+     */
+    private final MarshallerProvider marshallerProvider = new MarshallerProvider() {
+        public Marshaller getMarshaller(String contentType) {
+            RequestMarshallerImpl marsh = contentMarshallers.get(contentType);
+            return marsh != null ? marsh.getMarshaller() : null;
+        }
+    };
+    
+    private final UnmarshallerProvider unmarshallerProvider = new UnmarshallerProvider() {
+        public Unmarshaller getUnmarshaller(String contentType) {
+            RequestUnmarshallerImpl unmarsh = contentUnmarshallers.get(contentType);
+            return unmarsh != null ? unmarsh.getUnmarshaller() : null;
+        }
+    };
+    
     public void addContentMarshaller(String contentType, RequestMarshallerImpl marshaller) {
         
         this.contentMarshallers.put(contentType, marshaller);
@@ -47,21 +65,11 @@ public void addContentUnmarshaller(String contentType, RequestUnmarshallerImpl u
         this.contentUnmarshallers.put(contentType, unmarshaller);
     }
 
-    public MarshallerProvider newMarshallerProvider() {
-        return new MarshallerProvider() {
-            public Marshaller getMarshaller(String contentType) {
-                RequestMarshallerImpl marsh = contentMarshallers.get(contentType);
-                return marsh != null ? marsh.getMarshaller() : null;
-            }
-        };
+    public MarshallerProvider marshallerProvider() {
+        return marshallerProvider;
     }
     
-    public UnmarshallerProvider newUnmarshallerProvider() {
-        return new UnmarshallerProvider() {
-            public Unmarshaller getUnmarshaller(String contentType) {
-                RequestUnmarshallerImpl unmarsh = contentUnmarshallers.get(contentType);
-                return unmarsh != null ? unmarsh.getUnmarshaller() : null;
-            }
-        };
+    public UnmarshallerProvider unmarshallerProvider() {
+        return unmarshallerProvider;
     }
 }
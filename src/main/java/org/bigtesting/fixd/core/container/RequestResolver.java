@@ -15,19 +15,20 @@
  */
 package org.bigtesting.fixd.core.container;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 
 import org.bigtesting.fixd.Method;
 import org.bigtesting.fixd.core.RequestHandlerImpl;
 import org.bigtesting.fixd.core.Upon;
 import org.bigtesting.fixd.util.RequestUtils;
 import org.bigtesting.routd.Route;
-import org.bigtesting.routd.Router;
-import org.bigtesting.routd.TreeRouter;
 import org.simpleframework.http.ContentType;
 import org.simpleframework.http.Request;
-import org.simpleframework.http.Status;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,78 +40,90 @@ class RequestResolver {
     
     private static final Logger logger = LoggerFactory.getLogger(RequestResolver.class);
     
+    /*
+     * handlers are added rarely, and requests are resolved all the time, 
+     * so the registrations below are compiled into an immutable trie, 
+     * and requests are resolved against it without any locking; adding 
+     * a handler only discards the trie, and it is compiled again when 
+     * the next request is resolved, so registering many handlers 
+     * compiles it once rather than once for each of them
+     */
+    private volatile HandlerTrie trie = HandlerTrie.EMPTY;
+    
     /**
      * TODO issue #9
      * create a separate router for before and after handlers;
      * otherwise, a before handler for /* will handle requests
      * for specific routes that have other handlers  
+     * 
+     * each route is kept once, in the order it was first added
      */
-    private final Router router = new TreeRouter();
+    private final Set<Route> routes = new LinkedHashSet<Route>();
     
     private final Map<HandlerKey, RequestHandlerImpl> handlerMap = 
-            new ConcurrentHashMap<HandlerKey, RequestHandlerImpl>();
+            new LinkedHashMap<HandlerKey, RequestHandlerImpl>();
     
-    private final Map<HandlerKey, Upon> uponHandlers = 
-            new ConcurrentHashMap<HandlerKey, Upon>();
+    /* an HTTP handler and a WebSocket handler can both wait upon the same request */
+    private final Map<HandlerKey, List<Upon>> uponHandlers = 
+            new LinkedHashMap<HandlerKey, List<Upon>>();
     
-    public HandlerKey addHandler(RequestHandlerImpl handler, 
+    public synchronized HandlerKey addHandler(RequestHandlerImpl handler, 
             Method method, String resource, String contentType) {
         
         Route route = new Route(resource);
         HandlerKey key = new HandlerKey(method.name(), route, contentType);
         handlerMap.put(key, handler);
-        router.add(route);
+        routes.add(route);
+        trie = null;
         return key;
     }
     
-    public void addUponHandler(FixtureContainer container, Upon upon) {
+    public synchronized void addUponHandler(FixtureContainer container, Upon upon) {
         
         RequestHandlerImpl uponHandler = 
                 (RequestHandlerImpl)new RequestHandlerImpl(container).with(200, "text/plain", "");
-        HandlerKey uponKey = addHandler(uponHandler, upon.getMethod(), 
+        HandlerKey uponKey = new HandlerKey(upon.getMethod().name(), 
+                new Route(upon.getResource()), upon.getContentType());
+        List<Upon> upons = uponHandlers.get(uponKey);
+        if (upons == null) {
+            upons = new ArrayList<Upon>();
+            uponHandlers.put(uponKey, upons);
+        }
+        upons.add(upon);
+        addHandler(uponHandler, upon.getMethod(), 
                 upon.getResource(), upon.getContentType());
-        uponHandlers.put(uponKey, upon);
-    }
-    
-    public boolean requestIsForUponHandler(ResolvedRequest resolved) {
-        
-        return uponHandlers.containsKey(resolved.key);
-    }
-    
-    public Upon getUpon(ResolvedRequest resolved) {
-        
-        return uponHandlers.get(resolved.key);
     }
     
     public ResolvedRequest resolve(Request request) {
         
-        ResolvedRequest resolved = new ResolvedRequest();
         String method = request.getMethod();
         String path = RequestUtils.getUndecodedPath(request);
         ContentType requestContentType = request.getContentType();
+        String contentType = requestContentType != null ? 
+                requestContentType.getType() : null;
+        
+        HandlerTrie current = trie;
+        if (current == null) {
+            current = compile();
+        }
         
         /* get the route and the handler for this request */
-        Route route = router.route(path);
-        if (route == null) {
+        ResolvedRequest resolved = current.resolve(method, path, contentType);
+        if (resolved == ResolvedRequest.NOT_FOUND) {
             logger.error("could not find a route for " + path);
-            resolved.errorStatus = Status.NOT_FOUND;
-            return resolved;
-        }
-        String contentType = requestContentType != null ? 
-                requestContentType.getType() : null;
-        HandlerKey key = new HandlerKey(method, route, contentType);
-        RequestHandlerImpl handler = handlerMap.get(key);
-        if (handler == null) {
+        } else if (resolved == ResolvedRequest.METHOD_NOT_ALLOWED) {
             logger.error("could not find a handler for " + 
                     method + " - " + path + " - " + contentType);
-            resolved.errorStatus = Status.METHOD_NOT_ALLOWED;
-            return resolved;
         }
-        
-        resolved.handler = handler;
-        resolved.route = route;
-        resolved.key = key;
         return resolved;
     }
-
+    
+    private synchronized HandlerTrie compile() {
+        
+        /* another thread may have compiled it while this one waited */
+        if (trie == null) {
+            trie = HandlerTrie.compile(routes, handlerMap, uponHandlers);
+        }
+        return trie;
+    }
 }
@@ -16,17 +16,44 @@
 package org.bigtesting.fixd.core.container;
 
 import org.bigtesting.fixd.core.RequestHandlerImpl;
+import org.bigtesting.fixd.core.Upon;
 import org.bigtesting.routd.Route;
 import org.simpleframework.http.Status;
 
 /**
+ * The outcome of resolving a request. Instances are built once, when
+ * the handlers are compiled, and shared by all the requests they
+ * resolve.
  * 
  * @author Luis Antunes
  */
 class ResolvedRequest {
+    
+    static final ResolvedRequest NOT_FOUND = new ResolvedRequest(Status.NOT_FOUND);
+    
+    static final ResolvedRequest METHOD_NOT_ALLOWED = new ResolvedRequest(Status.METHOD_NOT_ALLOWED);
+    
+    static final Upon[] NO_UPONS = new Upon[0];
 
-    public Route route;
-    public RequestHandlerImpl handler;
-    public HandlerKey key;
-    public Status errorStatus;
+    public final Route route;
+    public final RequestHandlerImpl handler;
+    /* everything waiting upon the request, which is never null */
+    public final Upon[] upons;
+    public final Status errorStatus;
+    
+    ResolvedRequest(Route route, RequestHandlerImpl handler, Upon[] upons) {
+        
+        this.route = route;
+        this.handler = handler;
+        this.upons = upons;
+        this.errorStatus = null;
+    }
+    
+    private ResolvedRequest(Status errorStatus) {
+        
+        this.route = null;
+        this.handler = null;
+        this.upons = NO_UPONS;
+        this.errorStatus = errorStatus;
+    }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.socket;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.simpleframework.http.socket.Frame;
+import org.simpleframework.http.socket.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A client connected to a WebSocket resource. Frames are sent to the 
+ * client from the thread the frame was received on, the thread of 
+ * an upon request, or an async thread for periodic pushes, so sending 
+ * is synchronized to keep frames from interleaving.
+ * 
+ * @author Luis Antunes
+ */
+class WebSocketConnection {
+    
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketConnection.class);
+    
+    private final Session session;
+    
+    private final String path;
+    
+    private final WebSocketRouter router;
+    
+    private final List<ScheduledFuture<?>> pushes = 
+            new CopyOnWriteArrayList<ScheduledFuture<?>>();
+    
+    private volatile boolean closed = false;
+    
+    WebSocketConnection(Session session, String path, WebSocketRouter router) {
+        
+        this.session = session;
+        this.path = path;
+        this.router = router;
+    }
+    
+    String getPath() {
+        return path;
+    }
+    
+    /**
+     * @return true if the frame was sent
+     */
+    synchronized boolean send(Frame frame) {
+        
+        if (closed) {
+            return false;
+        }
+        
+        try {
+            session.getChannel().send(frame);
+            return true;
+        } catch (IOException e) {
+            /* the client is gone, and will be removed once it is closed */
+            logger.debug("could not send a frame to web socket " + path, e);
+            return false;
+        }
+    }
+    
+    /*
+     * pushes are timed on the shared scheduler, and sent on an 
+     * async thread, as with the periodic responses of HTTP handlers 
+     */
+    void schedule(long period, TimeUnit periodUnit, final int times, final Frame frame) {
+        
+        final Runnable send = new Runnable() {
+            public void run() {
+                send(frame);
+            }
+        };
+        
+        final ScheduledFuture<?>[] scheduled = new ScheduledFuture<?>[1];
+        Runnable tick = new Runnable() {
+            
+            private int ticks = 0;
+            
+            public void run() {
+                
+                if (closed || (times > -1 && ticks >= times)) {
+                    /* the push may run before it has been assigned */
+                    synchronized (scheduled) {
+                        scheduled[0].cancel(false);
+                    }
+                    return;
+                }
+                ticks++;
+                router.execute(send);
+            }
+        };
+        
+        synchronized (scheduled) {
+            scheduled[0] = router.scheduleAtFixedRate(tick, period, periodUnit);
+        }
+        pushes.add(scheduled[0]);
+        if (closed) {
+            cancelPushes();
+        }
+    }
+    
+    void cancelPushes() {
+        
+        closed = true;
+        for (ScheduledFuture<?> push : pushes) {
+            push.cancel(false);
+        }
+    }
+    
+    void close() {
+        
+        cancelPushes();
+        try {
+            session.getChannel().close();
+        } catch (IOException e) {
+            logger.debug("error closing web socket " + path, e);
+        }
+    }
+}
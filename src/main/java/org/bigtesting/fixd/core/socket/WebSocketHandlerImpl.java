@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.socket;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bigtesting.fixd.Method;
+import org.bigtesting.fixd.WebSocketHandler;
+import org.bigtesting.fixd.capture.impl.SimpleCapturedFrame;
+import org.bigtesting.fixd.capture.impl.SimpleCapturedRequest;
+import org.bigtesting.fixd.core.Upon;
+import org.bigtesting.fixd.core.UponListener;
+import org.bigtesting.fixd.core.container.FixtureContainer;
+import org.bigtesting.fixd.interpolation.ResponseBodyInterpolator;
+import org.bigtesting.fixd.interpolation.ResponseBodyTemplate;
+import org.bigtesting.fixd.request.HttpRequest;
+import org.simpleframework.http.socket.DataFrame;
+import org.simpleframework.http.socket.Frame;
+import org.simpleframework.http.socket.FrameListener;
+import org.simpleframework.http.socket.FrameType;
+import org.simpleframework.http.socket.Reason;
+import org.simpleframework.http.socket.Session;
+import org.simpleframework.http.socket.service.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 
+ * @author Luis Antunes
+ */
+public class WebSocketHandlerImpl implements WebSocketHandler, Service {
+    
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketHandlerImpl.class);
+    
+    private final FixtureContainer container;
+    
+    private final WebSocketRouter router;
+    
+    /* the connections currently open, to broadcast to */
+    private final Set<WebSocketConnection> connections = 
+            Collections.newSetFromMap(new ConcurrentHashMap<WebSocketConnection, Boolean>());
+    
+    private final List<Reply> replies = new CopyOnWriteArrayList<Reply>();
+    
+    private final List<Push> pushes = new CopyOnWriteArrayList<Push>();
+    
+    private volatile Frame connectFrame;
+    
+    private volatile boolean echo = false;
+    
+    public WebSocketHandlerImpl(FixtureContainer container, WebSocketRouter router) {
+        
+        this.container = container;
+        this.router = router;
+    }
+    
+    public WebSocketHandler onConnect(String message) {
+        
+        this.connectFrame = textFrame(message);
+        return this;
+    }
+    
+    public WebSocketHandler echo() {
+        
+        this.echo = true;
+        return this;
+    }
+    
+    public WebSocketHandler onMessage(String regex, String reply) {
+        
+        replies.add(new Reply(Pattern.compile(regex), reply));
+        return this;
+    }
+    
+    public WebSocketHandler every(long period, TimeUnit periodUnit, String message) {
+        
+        return every(period, periodUnit, -1, message);
+    }
+    
+    public WebSocketHandler every(long period, TimeUnit periodUnit, int times, String message) {
+        
+        pushes.add(new Push(period, periodUnit, times, textFrame(message)));
+        return this;
+    }
+    
+    public WebSocketHandler upon(Method method, String resource, String message) {
+        
+        container.addUponHandler(new Upon(method, resource, 
+                new UponMessage(ResponseBodyInterpolator.compile(message))));
+        return this;
+    }
+    
+    /*------------------------------------------*/
+    
+    public void connect(Session session) {
+        
+        final WebSocketConnection connection = new WebSocketConnection(session, 
+                session.getRequest().getPath().getPath(), router);
+        try {
+            session.getChannel().register(new FrameListener() {
+                
+                public void onFrame(Session session, Frame frame) {
+                    received(connection, frame);
+                }
+                
+                public void onError(Session session, Exception cause) {
+                    logger.error("error on web socket " + connection.getPath(), cause);
+                }
+                
+                public void onClose(Session session, Reason reason) {
+                    disconnected(connection);
+                }
+            });
+        } catch (IOException e) {
+            logger.error("error registering with web socket " + connection.getPath(), e);
+            connection.close();
+            return;
+        }
+        
+        connections.add(connection);
+        
+        Frame onConnect = connectFrame;
+        if (onConnect != null) {
+            connection.send(onConnect);
+        }
+        
+        for (Push push : pushes) {
+            connection.schedule(push.period, push.periodUnit, push.times, push.frame);
+        }
+    }
+    
+    public int connectionCount() {
+        
+        return connections.size();
+    }
+    
+    public void stop() {
+        
+        for (WebSocketConnection connection : connections) {
+            connection.close();
+        }
+        connections.clear();
+    }
+    
+    private void received(WebSocketConnection connection, Frame frame) {
+        
+        FrameType type = frame.getType();
+        if (type == FrameType.TEXT) {
+            
+            String text = frame.getText();
+            router.capture(new SimpleCapturedFrame(connection.getPath(), text, frame.getBinary()));
+            
+            if (echo) {
+                connection.send(textFrame(text));
+            }
+            for (Reply reply : replies) {
+                Matcher matcher = reply.pattern.matcher(text);
+                if (matcher.matches()) {
+                    connection.send(textFrame(matcher.replaceFirst(reply.message)));
+                }
+            }
+            
+        } else if (type == FrameType.BINARY) {
+            
+            byte[] data = frame.getBinary();
+            router.capture(new SimpleCapturedFrame(connection.getPath(), null, data));
+            
+            if (echo) {
+                connection.send(new DataFrame(FrameType.BINARY, data));
+            }
+        }
+    }
+    
+    private void disconnected(WebSocketConnection connection) {
+        
+        connections.remove(connection);
+        connection.cancelPushes();
+    }
+    
+    private static Frame textFrame(String message) {
+        
+        return new DataFrame(FrameType.TEXT, message);
+    }
+    
+    private static class Reply {
+        
+        private final Pattern pattern;
+        private final String message;
+        
+        private Reply(Pattern pattern, String message) {
+            
+            this.pattern = pattern;
+            this.message = message;
+        }
+    }
+    
+    private static class Push {
+        
+        private final long period;
+        private final TimeUnit periodUnit;
+        private final int times;
+        private final Frame frame;
+        
+        private Push(long period, TimeUnit periodUnit, int times, Frame frame) {
+            
+            this.period = period;
+            this.periodUnit = periodUnit;
+            this.times = times;
+            this.frame = frame;
+        }
+    }
+    
+    /*
+     * the message is rendered once for the request it is sent upon, 
+     * and the same frame is sent to every connection
+     */
+    private class UponMessage implements UponListener {
+        
+        private final ResponseBodyTemplate template;
+        
+        private UponMessage(ResponseBodyTemplate template) {
+            
+            this.template = template;
+        }
+        
+        public void upon(HttpRequest request, SimpleCapturedRequest captured) {
+            
+            if (connections.isEmpty()) {
+                return;
+            }
+            
+            Frame frame = textFrame(template.render(request));
+            boolean sent = false;
+            for (WebSocketConnection connection : connections) {
+                sent |= connection.send(frame);
+            }
+            if (sent) {
+                captured.setBroadcast(true);
+            }
+        }
+    }
+}
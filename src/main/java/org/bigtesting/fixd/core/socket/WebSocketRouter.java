@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.core.socket;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bigtesting.fixd.capture.CapturedFrame;
+import org.bigtesting.fixd.core.container.FixtureContainer;
+import org.bigtesting.fixd.util.RequestUtils;
+import org.bigtesting.routd.Route;
+import org.bigtesting.routd.RouteHelper;
+import org.bigtesting.routd.TreeRouter;
+import org.simpleframework.http.Request;
+import org.simpleframework.http.Response;
+import org.simpleframework.http.socket.service.Router;
+import org.simpleframework.http.socket.service.Service;
+
+/**
+ * Routes WebSocket upgrade requests to the handler for their resource.
+ * Any other request is left to the fixture's container.
+ * 
+ * @author Luis Antunes
+ */
+public class WebSocketRouter implements Router {
+    
+    private static final String WEBSOCKET = "websocket";
+    
+    private final TreeRouter router = new TreeRouter();
+    
+    private final Map<Route, WebSocketHandlerImpl> handlers = 
+            new ConcurrentHashMap<Route, WebSocketHandlerImpl>();
+    
+    private final Queue<CapturedFrame> capturedFrames = 
+            new ConcurrentLinkedQueue<CapturedFrame>();
+    
+    /* the size of the queue, which the queue itself takes linear time to count */
+    private final AtomicInteger capturedFrameCount = new AtomicInteger();
+    
+    private final AtomicLong droppedFrames = new AtomicLong();
+    
+    /* -1 when the number of captured frames is not limited */
+    private volatile int capturedFrameLimit = -1;
+    
+    private final ScheduledExecutorService scheduler;
+    
+    private final Executor executor;
+    
+    public WebSocketRouter(ScheduledExecutorService scheduler, Executor executor) {
+        
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+    
+    public WebSocketHandlerImpl addHandler(FixtureContainer container, String resource) {
+        
+        WebSocketHandlerImpl handler = new WebSocketHandlerImpl(container, this);
+        Route route = new Route(resource);
+        handlers.put(route, handler);
+        router.add(route);
+        return handler;
+    }
+    
+    public Service route(Request request, Response response) {
+        
+        /* every request passes through here, so the header is checked first */
+        String upgrade = request.getValue("Upgrade");
+        if (upgrade == null || !upgrade.equalsIgnoreCase(WEBSOCKET) || 
+                handlers.isEmpty()) {
+            return null;
+        }
+        
+        Route route = router.route(RouteHelper.urlDecodeForRouting(
+                RequestUtils.getUndecodedPath(request)));
+        return route != null ? handlers.get(route) : null;
+    }
+    
+    public Collection<CapturedFrame> getCapturedFrames() {
+        
+        return new ArrayList<CapturedFrame>(capturedFrames);
+    }
+    
+    public CapturedFrame nextCapturedFrame() {
+        
+        CapturedFrame frame = capturedFrames.poll();
+        if (frame != null) {
+            capturedFrameCount.decrementAndGet();
+        }
+        return frame;
+    }
+    
+    /**
+     * Limits the number of captured frames kept, discarding the oldest 
+     * once the limit is reached, or removes the limit if it is -1.
+     */
+    public void setCapturedFrameLimit(int limit) {
+        
+        capturedFrameLimit = limit;
+        if (limit > -1) {
+            while (capturedFrameCount.get() > limit) {
+                dropOldestFrame();
+            }
+        }
+    }
+    
+    /**
+     * @return the number of frames that were discarded, without 
+     * having been retrieved, to keep within the captured frame limit
+     */
+    public long getDroppedCapturedFrames() {
+        
+        return droppedFrames.get();
+    }
+    
+    public void stop() {
+        
+        for (WebSocketHandlerImpl handler : handlers.values()) {
+            handler.stop();
+        }
+    }
+    
+    void capture(CapturedFrame frame) {
+        
+        capturedFrames.add(frame);
+        int count = capturedFrameCount.incrementAndGet();
+        int limit = capturedFrameLimit;
+        if (limit > -1 && count > limit) {
+            dropOldestFrame();
+        }
+    }
+    
+    private void dropOldestFrame() {
+        
+        if (capturedFrames.poll() != null) {
+            capturedFrameCount.decrementAndGet();
+            droppedFrames.incrementAndGet();
+        }
+    }
+    
+    void execute(Runnable task) {
+        
+        executor.execute(task);
+    }
+    
+    ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long period, TimeUnit periodUnit) {
+        
+        return scheduler.scheduleAtFixedRate(task, 0, period, periodUnit);
+    }
+}
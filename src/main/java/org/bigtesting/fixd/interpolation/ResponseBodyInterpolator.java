@@ -15,12 +15,24 @@
  */
 package org.bigtesting.fixd.interpolation;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.bigtesting.fixd.interpolation.ResponseBodyTemplate.PathParamSlot;
+import org.bigtesting.fixd.interpolation.ResponseBodyTemplate.RequestHeaderSlot;
+import org.bigtesting.fixd.interpolation.ResponseBodyTemplate.RequestParamSlot;
+import org.bigtesting.fixd.interpolation.ResponseBodyTemplate.SessionValueSlot;
+import org.bigtesting.fixd.interpolation.ResponseBodyTemplate.Slot;
+import org.bigtesting.fixd.interpolation.ResponseBodyTemplate.SplatParamSlot;
+import org.bigtesting.fixd.interpolation.ResponseBodyTemplate.Token;
+import org.bigtesting.fixd.interpolation.ResponseBodyTemplate.ValueProviderSlot;
 import org.bigtesting.fixd.request.HttpRequest;
-import org.bigtesting.interpolatd.Interpolator;
-import org.bigtesting.interpolatd.Substitutor;
 
 /**
  * 
@@ -28,11 +40,29 @@
  */
 public class ResponseBodyInterpolator {
     
-    private static final Interpolator<HttpRequest> interpolator = new Interpolator<HttpRequest>();
+    private static final Pattern PATH_PARAM = Pattern.compile(":[a-zA-Z0-9_]+");
+    
+    private static final Pattern SPLAT_PARAM = Pattern.compile("\\*\\[[0-9]+\\]");
+    
+    private static final Pattern SESSION_VALUE = Pattern.compile("\\{[^{}\\s]+\\}");
+    
+    private static final Pattern REQUEST_VALUE = Pattern.compile("\\[[^\\[\\]\\s]+\\]");
+    
+    private static final Pattern ESCAPE = Pattern.compile("\\^");
+    
+    private static final String REQUEST_PARAM_PREFIX = "request?";
+    
+    private static final String REQUEST_HEADER_PREFIX = "request$";
     
     private static final Map<String, RequestValueProvider<?>> requestValueProviders = 
             new HashMap<String, RequestValueProvider<?>>();
     
+    private static final Comparator<Token> byStart = new Comparator<Token>() {
+        public int compare(Token t1, Token t2) {
+            return t1.start < t2.start ? -1 : (t1.start == t2.start ? 0 : 1);
+        }
+    };
+    
     static {
         requestValueProviders.put("request.body", new RequestBodyValueProvider());
         requestValueProviders.put("request.method", new RequestMethodValueProvider());
@@ -42,68 +72,113 @@ public class ResponseBodyInterpolator {
         requestValueProviders.put("request.major", new RequestMajorValueProvider());
         requestValueProviders.put("request.minor", new RequestMinorValueProvider());
         requestValueProviders.put("request.target", new RequestTargetValueProvider());
+    }
+
+    public static String interpolate(String body, HttpRequest request) {
         
-        interpolator.when("[a-zA-Z0-9_]+").prefixedBy(":")
-            .handleWith(new Substitutor<HttpRequest>() {
-                public String substitute(String captured, HttpRequest req) {
-                    
-                    String path = req.getUndecodedPath();
-                    return req.getRoute().getNamedParameter(captured, path);
-                }
-            });
-        
-        interpolator.when("[0-9]+").enclosedBy("*[").and("]")
-            .handleWith(new Substitutor<HttpRequest>() {
-                public String substitute(String captured, HttpRequest req) {
-                    
-                    String path = req.getUndecodedPath();
-                    int index = Integer.parseInt(captured);
-                    return req.getRoute().getSplatParameter(index, path);
-                }
-            });
-        
-        interpolator.when().enclosedBy("{").and("}")
-            .handleWith(new Substitutor<HttpRequest>() {
-                public String substitute(String captured, HttpRequest req) {
-                    
-                    if (req.getSession() != null) {
-                        Object val = req.getSession().get(captured);
-                        if (val != null) {
-                            return val.toString();
-                        }
-                    }
-                    return null;
-                }
-            });
-        
-        interpolator.when().enclosedBy("[").and("]")
-            .handleWith(new Substitutor<HttpRequest>() {
-                public String substitute(String captured, HttpRequest req) {
-                    
-                    if (captured.startsWith("request?")) {
-                        return req.getRequestParameter(captured.replaceFirst("request\\?", ""));
-                    }
+        return compile(body).render(request);
+    }
     
-                    if (captured.startsWith("request$")) {
-                        return req.getHeaderValue(captured.replaceFirst("request\\$", ""));
-                    }
+    /**
+     * Scans the given body for path parameters, splat parameters, 
+     * session values, request values and escapes, so that the 
+     * returned template can be rendered for any number of requests
+     * without scanning the body again.
+     */
+    public static ResponseBodyTemplate compile(String body) {
+        
+        if (body == null) {
+            return new ResponseBodyTemplate(null, new Token[0]);
+        }
+        
+        /* 
+         * matches are collected in the order of the instructions below, 
+         * and then sorted by position; the sort is stable, so matches 
+         * that start at the same position keep that order 
+         */
+        List<Token> tokens = new ArrayList<Token>();
+        
+        Matcher m = PATH_PARAM.matcher(body);
+        while (m.find()) {
+            tokens.add(new Token(m.start(), m.end(), 
+                    new PathParamSlot(body.substring(m.start() + 1, m.end()))));
+        }
+        
+        m = SPLAT_PARAM.matcher(body);
+        while (m.find()) {
+            tokens.add(new Token(m.start(), m.end(), 
+                    splatParamSlot(body.substring(m.start() + 2, m.end() - 1))));
+        }
+        
+        m = SESSION_VALUE.matcher(body);
+        while (m.find()) {
+            tokens.add(new Token(m.start(), m.end(), 
+                    new SessionValueSlot(body.substring(m.start() + 1, m.end() - 1))));
+        }
+        
+        m = REQUEST_VALUE.matcher(body);
+        while (m.find()) {
+            tokens.add(new Token(m.start(), m.end(), 
+                    requestValueSlot(body.substring(m.start() + 1, m.end() - 1))));
+        }
+        
+        m = ESCAPE.matcher(body);
+        while (m.find()) {
+            tokens.add(new Token(m.start(), m.end(), null));
+        }
+        
+        Collections.sort(tokens, byStart);
+        
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            if (token.isEscape()) {
+                token.actualEscape = isActualEscape(tokens, i);
+            }
+        }
+        
+        return new ResponseBodyTemplate(body, tokens.toArray(new Token[tokens.size()]));
+    }
     
-                    RequestValueProvider<?> requestValueProvider = requestValueProviders.get(captured);
-                    if (requestValueProvider != null) {
-                        Object val = requestValueProvider.getValue(req);
-                        if (val != null) {
-                            return val.toString();
-                        }
-                    }
-                    return null;
-                }
-            });
-        
-        interpolator.escapeWith("^");
+    private static Slot splatParamSlot(String captured) {
+        
+        try {
+            return new SplatParamSlot(Integer.parseInt(captured));
+        } catch (NumberFormatException e) {
+            /* an index this large can never match a splat parameter */
+            return new ValueProviderSlot(null);
+        }
     }
-
-    public static String interpolate(String body, HttpRequest request) {
+    
+    private static Slot requestValueSlot(String captured) {
+        
+        if (captured.startsWith(REQUEST_PARAM_PREFIX)) {
+            return new RequestParamSlot(captured.substring(REQUEST_PARAM_PREFIX.length()));
+        }
+        
+        if (captured.startsWith(REQUEST_HEADER_PREFIX)) {
+            return new RequestHeaderSlot(captured.substring(REQUEST_HEADER_PREFIX.length()));
+        }
+        
+        return new ValueProviderSlot(requestValueProviders.get(captured));
+    }
+    
+    /*
+     * an escape only counts if it is immediately followed by a 
+     * placeholder, or by a chain of escapes that ends in one
+     */
+    private static boolean isActualEscape(List<Token> tokens, int index) {
         
-        return interpolator.interpolate(body, request);
+        Token escape = tokens.get(index);
+        while (index + 1 < tokens.size()) {
+            Token next = tokens.get(++index);
+            if (!next.isAfter(escape)) {
+                return false;
+            }
+            if (!next.isEscape()) {
+                return true;
+            }
+            escape = next;
+        }
+        return false;
     }
 }
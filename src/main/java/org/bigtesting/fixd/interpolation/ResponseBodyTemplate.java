@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.interpolation;
+
+import org.bigtesting.fixd.request.HttpRequest;
+
+/**
+ * A response body that has been scanned once for interpolation
+ * instructions. The template keeps the original text, along with
+ * the positions of every placeholder and escape found in it, so
+ * that rendering it for a request is a single pass that copies
+ * the literal text between placeholders and appends the
+ * placeholder values.
+ *
+ * @author Luis Antunes
+ */
+public class ResponseBodyTemplate {
+
+    /*
+     * the largest buffer that will be kept around for re-use
+     * by a thread after a body has been rendered
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<StringBuilder> buffers =
+            new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(1024);
+        }
+    };
+
+    private final String text;
+
+    private final Token[] tokens;
+
+    private final boolean constant;
+
+    ResponseBodyTemplate(String text, Token[] tokens) {
+
+        this.text = text;
+        this.tokens = tokens;
+        this.constant = !hasPlaceholders(tokens);
+    }
+
+    public String getText() {
+
+        return text;
+    }
+
+    /**
+     * @return true if this template contains no placeholders,
+     * in which case it always renders to its original text
+     */
+    public boolean isConstant() {
+
+        return constant;
+    }
+
+    public String render(HttpRequest request) {
+
+        if (constant) {
+            return text;
+        }
+
+        StringBuilder out = buffers.get();
+        out.setLength(0);
+        render(request, out);
+        String rendered = out.toString();
+        if (out.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            buffers.remove();
+        }
+        return rendered;
+    }
+
+    /*
+     * tokens are visited in order of their starting position; a
+     * token that overlaps text already substituted is ignored; a
+     * token immediately following an escape is left as-is; and a
+     * placeholder whose value is null is left as-is
+     */
+    public void render(HttpRequest request, StringBuilder out) {
+
+        if (constant) {
+            if (text != null) out.append(text);
+            return;
+        }
+
+        int copied = 0;
+        int lastEnd = 0;
+        Token lastEscape = null;
+
+        for (Token token : tokens) {
+
+            if (token.start < lastEnd) {
+                continue;
+            }
+
+            if (token.isEscape()) {
+
+                if (lastEscape != null && token.isAfter(lastEscape)) {
+                    continue;
+                }
+                if (!token.actualEscape) {
+                    continue;
+                }
+                lastEscape = token;
+                out.append(text, copied, token.start);
+                copied = token.end;
+                lastEnd = token.end;
+                continue;
+            }
+
+            if (lastEscape != null && token.isAfter(lastEscape)) {
+                lastEnd = token.end;
+                continue;
+            }
+
+            String value = token.slot.value(request);
+            if (value == null) {
+                continue;
+            }
+            out.append(text, copied, token.start).append(value);
+            copied = token.end;
+            lastEnd = token.end;
+        }
+
+        out.append(text, copied, text.length());
+    }
+
+    private static boolean hasPlaceholders(Token[] tokens) {
+
+        for (Token token : tokens) {
+            if (!token.isEscape()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*------------------------------------------*/
+
+    interface Slot {
+
+        String value(HttpRequest request);
+    }
+
+    static class Token {
+
+        final int start;
+        final int end;
+        final Slot slot;
+        boolean actualEscape;
+
+        Token(int start, int end, Slot slot) {
+
+            this.start = start;
+            this.end = end;
+            this.slot = slot;
+        }
+
+        boolean isEscape() {
+            return slot == null;
+        }
+
+        boolean isAfter(Token that) {
+            return this.start == that.end;
+        }
+    }
+
+    static class PathParamSlot implements Slot {
+
+        private final String name;
+
+        PathParamSlot(String name) {
+            this.name = name;
+        }
+
+        public String value(HttpRequest request) {
+            return request.getRoute().getNamedParameter(name, request.getUndecodedPath());
+        }
+    }
+
+    static class SplatParamSlot implements Slot {
+
+        private final int index;
+
+        SplatParamSlot(int index) {
+            this.index = index;
+        }
+
+        public String value(HttpRequest request) {
+            return request.getRoute().getSplatParameter(index, request.getUndecodedPath());
+        }
+    }
+
+    static class SessionValueSlot implements Slot {
+
+        private final String name;
+
+        SessionValueSlot(String name) {
+            this.name = name;
+        }
+
+        public String value(HttpRequest request) {
+
+            if (request.getSession() != null) {
+                Object val = request.getSession().get(name);
+                if (val != null) {
+                    return val.toString();
+                }
+            }
+            return null;
+        }
+    }
+
+    static class RequestParamSlot implements Slot {
+
+        private final String name;
+
+        RequestParamSlot(String name) {
+            this.name = name;
+        }
+
+        public String value(HttpRequest request) {
+            return request.getRequestParameter(name);
+        }
+    }
+
+    static class RequestHeaderSlot implements Slot {
+
+        private final String name;
+
+        RequestHeaderSlot(String name) {
+            this.name = name;
+        }
+
+        public String value(HttpRequest request) {
+            return request.getHeaderValue(name);
+        }
+    }
+
+    static class ValueProviderSlot implements Slot {
+
+        private final RequestValueProvider<?> provider;
+
+        ValueProviderSlot(RequestValueProvider<?> provider) {
+            this.provider = provider;
+        }
+
+        public String value(HttpRequest request) {
+
+            if (provider != null) {
+                Object val = provider.getValue(request);
+                if (val != null) {
+                    return val.toString();
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.request;
+
+import java.io.IOException;
+
+import org.bigtesting.fixd.response.ResponseSink;
+
+/**
+ * Produces the body of a response incrementally, writing it 
+ * to the sink as it goes. The handler is run on an async thread.
+ * 
+ * @author Luis Antunes
+ */
+public interface StreamingHttpRequestHandler {
+
+    void handle(HttpRequest request, ResponseSink sink) throws IOException;
+}
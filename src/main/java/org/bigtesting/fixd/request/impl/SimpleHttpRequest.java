@@ -34,11 +34,11 @@
  */
 public class SimpleHttpRequest implements HttpRequest {
 
-    private final Request request;
+    private Request request;
     
-    private final Session session;
+    private Session session;
     
-    private final Route route;
+    private Route route;
     
     private final UnmarshallerProvider unmarshallerProvider;
     
@@ -51,6 +51,18 @@ public SimpleHttpRequest(Request request, Session session, Route route,
         this.unmarshallerProvider = unmarshallerProvider;
     }
     
+    /**
+     * Points this instance at another request, so that a single 
+     * instance can be re-used by the thread that owns it. This must 
+     * only be done once nothing refers to the previous request. 
+     */
+    public void reset(Request request, Session session, Route route) {
+        
+        this.request = request;
+        this.session = session;
+        this.route = route;
+    }
+    
     public String getPath() {
         
         return request.getPath().getPath();
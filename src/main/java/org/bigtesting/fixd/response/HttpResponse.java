@@ -15,6 +15,7 @@
  */
 package org.bigtesting.fixd.response;
 
+import java.io.File;
 import java.io.InputStream;
 
 /**
@@ -27,6 +28,8 @@ public interface HttpResponse {
     
     void setBody(byte[] content);
     
+    void setBody(File file);
+    
     void setBody(String content);
     
     void setBody(Object entity);
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.response;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The body of a response that is written as it is produced. The
+ * body is sent with chunked transfer encoding, and a write blocks 
+ * while the client is not keeping up, so that a body of any size 
+ * can be produced without holding it in memory.
+ * 
+ * @author Luis Antunes
+ */
+public interface ResponseSink {
+
+    /**
+     * Writes all the remaining bytes of the given buffer.
+     * 
+     * @throws IOException if the client has disconnected
+     */
+    void write(ByteBuffer buffer) throws IOException;
+    
+    /**
+     * Sends anything written so far to the client.
+     */
+    void flush() throws IOException;
+    
+    /**
+     * Ends the response. The sink is closed once the handler 
+     * returns, if it has not been closed already.
+     */
+    void close() throws IOException;
+}
@@ -15,9 +15,11 @@
  */
 package org.bigtesting.fixd.response.impl;
 
+import java.io.File;
 import java.io.InputStream;
 
 import org.bigtesting.fixd.core.body.ByteArrayResponseBody;
+import org.bigtesting.fixd.core.body.FileResponseBody;
 import org.bigtesting.fixd.core.body.InputStreamResponseBody;
 import org.bigtesting.fixd.core.body.InterpolatedResponseBody;
 import org.bigtesting.fixd.core.body.MarshalledResponseBody;
@@ -59,6 +61,10 @@ public void setBody(byte[] content) {
         this.body = new ByteArrayResponseBody(content);
     }
 
+    public void setBody(File file) {
+        this.body = new FileResponseBody(file);
+    }
+
     public void setBody(String content) {
         this.body = new StringResponseBody(content);
     }
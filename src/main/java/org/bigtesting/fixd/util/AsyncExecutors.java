@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors for the async work of a server fixture, such as delayed,
+ * periodic and suspended responses.
+ * 
+ * @author Luis Antunes
+ */
+public class AsyncExecutors {
+
+    /**
+     * @return true if the running JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        
+        return virtualThreadFactoryMethod() != null;
+    }
+    
+    /**
+     * Returns an executor that runs each task on its own virtual thread,
+     * so that a task waiting for a delay or a broadcast holds on to no 
+     * platform thread. Virtual threads require Java 21 or later; the 
+     * executor is looked up at runtime, so fixd itself can still be used 
+     * on older JVMs.
+     * 
+     * @throws UnsupportedOperationException if the running JVM does 
+     * not support virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        
+        Method factoryMethod = virtualThreadFactoryMethod();
+        if (factoryMethod == null) {
+            throw new UnsupportedOperationException(
+                    "virtual threads are not supported by this JVM");
+        }
+        
+        try {
+            return (ExecutorService)factoryMethod.invoke(null);
+        } catch (Exception e) {
+            throw new RuntimeException("error creating virtual thread executor", e);
+        }
+    }
+    
+    private static Method virtualThreadFactoryMethod() {
+        
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats and parses the dates used in HTTP headers. The current 
+ * date is formatted at most once a second, and the same string is 
+ * shared by every response sent within that second.
+ * 
+ * @author Luis Antunes
+ */
+public class HttpDate {
+
+    private static final String FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+    
+    private static final ThreadLocal<SimpleDateFormat> formats = 
+            new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat(FORMAT, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return format;
+        }
+    };
+    
+    private static volatile CachedDate current = new CachedDate(-1, null);
+    
+    /**
+     * @return the current date, formatted for use in a header
+     */
+    public static String now() {
+        
+        long second = System.currentTimeMillis() / 1000;
+        CachedDate cached = current;
+        if (cached.second != second) {
+            cached = new CachedDate(second, format(second * 1000));
+            current = cached;
+        }
+        return cached.value;
+    }
+    
+    public static String format(long time) {
+        
+        return formats.get().format(new Date(time));
+    }
+    
+    /**
+     * @return the time represented by the given header value, 
+     * or -1 if the value is null or is not a date
+     */
+    public static long parse(String value) {
+        
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return formats.get().parse(value.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+    
+    private static class CachedDate {
+        
+        final long second;
+        final String value;
+        
+        CachedDate(long second, String value) {
+            this.second = second;
+            this.value = value;
+        }
+    }
+}
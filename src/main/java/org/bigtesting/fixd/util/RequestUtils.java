@@ -47,6 +47,33 @@ public static byte[] readBody(InputStream in) {
         return out.toByteArray();
     }
     
+    /**
+     * @return the body read from the given stream, or null if it
+     * is longer than the given number of bytes
+     */
+    public static byte[] readBody(InputStream in, int maxLength) {
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            
+            byte[] buffer = new byte[1024];
+            int len = 0;
+            while ((len = in.read(buffer)) != -1) {
+                if (out.size() + len > maxLength) {
+                    return null;
+                }
+                out.write(buffer, 0, len);
+            }
+            
+        } catch (IOException e) {
+            throw new RuntimeException("error getting body", e);
+        } finally {
+            if (in != null) try {in.close();} catch (IOException e2) {}
+        }
+        
+        return out.toByteArray();
+    }
+    
     public static String getUndecodedPath(Request request) {
         
         String path = request.getTarget();
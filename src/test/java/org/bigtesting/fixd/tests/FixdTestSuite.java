@@ -29,6 +29,7 @@
     TestPathParamSessionHandler.class,
     TestRequestParamSessionHandler.class,
     TestSimpleHttpRequest.class,
+    TestSubscriber.class,
     TestServerFixture.class
 })
 public class FixdTestSuite {
@@ -19,6 +19,7 @@
 
 import org.bigtesting.fixd.Method;
 import org.bigtesting.fixd.ServerFixture;
+import org.bigtesting.fixd.capture.CapturePolicy;
 import org.bigtesting.fixd.capture.CapturedRequest;
 import org.junit.After;
 import org.junit.Before;
@@ -135,6 +136,49 @@ public void testGetBody() throws Exception {
         assertArrayEquals(body, captured.getBody());    
     }
     
+    @Test
+    public void testGetBodyAfterHandlerHasReadIt() throws Exception {
+        
+        server.handle(Method.PUT, "/")
+              .with(200, "text/plain", "[request.body]");
+
+        String resp = client.preparePut("http://localhost:8080/")
+              .setBody("Hello")
+              .execute().get().getResponseBody().trim();
+        assertEquals("Hello", resp);
+
+        CapturedRequest captured = server.request();
+        assertTrue(captured.isBodyCaptured());
+        assertEquals("Hello", captured.getBody("UTF-8"));
+        assertEquals("Hello", captured.getBody("UTF-8"));
+    }
+    
+    @Test
+    public void testBodyLargerThanCapturePolicyAllowsIsNotCaptured() throws Exception {
+        
+        server.handle(Method.PUT, "/")
+              .with(200, "text/plain", "[request.body]");
+        server.setCapturePolicy(CapturePolicy.bodiesUpTo(4));
+
+        String resp = client.preparePut("http://localhost:8080/")
+              .setBody("Hello")
+              .execute().get().getResponseBody().trim();
+        assertEquals("Hello", resp);
+        
+        client.preparePut("http://localhost:8080/")
+              .setBody("Hey")
+              .execute().get();
+
+        CapturedRequest captured = server.request();
+        assertEquals("PUT / HTTP/1.1", captured.getRequestLine());
+        assertFalse(captured.isBodyCaptured());
+        assertEquals(0, captured.getBody().length);
+        
+        captured = server.request();
+        assertTrue(captured.isBodyCaptured());
+        assertEquals("Hey", captured.getBody("UTF-8"));
+    }
+    
     @Test
     public void testGetEncodedBody() throws Exception {
         
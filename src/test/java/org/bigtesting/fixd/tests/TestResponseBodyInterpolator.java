@@ -22,6 +22,7 @@
 import java.io.InputStream;
 
 import org.bigtesting.fixd.interpolation.ResponseBodyInterpolator;
+import org.bigtesting.fixd.interpolation.ResponseBodyTemplate;
 import org.bigtesting.fixd.request.HttpRequest;
 import org.bigtesting.fixd.session.Session;
 import org.bigtesting.routd.Route;
@@ -1333,6 +1334,36 @@ public void testEscapeNamedParamWithSessionValueName() {
                 ResponseBodyInterpolator.interpolate("Hello ^:name", req));
     }
     
+    @Test
+    public void testCompiledTemplateRenderedForDifferentRequests() {
+        
+        ResponseBodyTemplate template = 
+                ResponseBodyInterpolator.compile("Hello :name, ^:name [request.method]");
+        assertFalse(template.isConstant());
+        
+        HttpRequest req1 = mock(HttpRequest.class);
+        when(req1.getUndecodedPath()).thenReturn("/name/Tim");
+        when(req1.getRoute()).thenReturn(new Route("/name/:name"));
+        when(req1.getMethod()).thenReturn("GET");
+        
+        HttpRequest req2 = mock(HttpRequest.class);
+        when(req2.getUndecodedPath()).thenReturn("/name/John");
+        when(req2.getRoute()).thenReturn(new Route("/name/:name"));
+        when(req2.getMethod()).thenReturn("POST");
+        
+        assertEquals("Hello Tim, :name GET", template.render(req1));
+        assertEquals("Hello John, :name POST", template.render(req2));
+    }
+    
+    @Test
+    public void testCompiledTemplateWithoutPlaceholdersIsConstant() {
+        
+        assertTrue(ResponseBodyInterpolator.compile("Hello World!").isConstant());
+        assertTrue(ResponseBodyInterpolator.compile("Hello : ^ [ ] { }").isConstant());
+        assertFalse(ResponseBodyInterpolator.compile("Hello {name}").isConstant());
+        assertFalse(ResponseBodyInterpolator.compile("Hello *[0]").isConstant());
+    }
+    
     /*------------------------------------------------*/
     
     private InputStream body(String content) {
@@ -18,20 +18,39 @@
 import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.bigtesting.fixd.LatencyProfile;
+import org.bigtesting.fixd.LatencyStats;
 import org.bigtesting.fixd.Method;
+import org.bigtesting.fixd.OverflowPolicy;
 import org.bigtesting.fixd.ServerFixture;
+import org.bigtesting.fixd.capture.CapturedFrame;
 import org.bigtesting.fixd.capture.CapturedRequest;
 import org.bigtesting.fixd.marshalling.Marshaller;
 import org.bigtesting.fixd.marshalling.Unmarshaller;
 import org.bigtesting.fixd.request.HttpRequest;
 import org.bigtesting.fixd.request.HttpRequestHandler;
+import org.bigtesting.fixd.request.StreamingHttpRequestHandler;
 import org.bigtesting.fixd.response.HttpResponse;
+import org.bigtesting.fixd.response.ResponseSink;
 import org.bigtesting.fixd.session.PathParamSessionHandler;
 import org.bigtesting.fixd.session.RequestParamSessionHandler;
 import org.junit.After;
@@ -48,6 +67,9 @@
 import com.ning.http.client.HttpResponseBodyPart;
 import com.ning.http.client.ListenableFuture;
 import com.ning.http.client.Response;
+import com.ning.http.client.websocket.WebSocket;
+import com.ning.http.client.websocket.WebSocketTextListener;
+import com.ning.http.client.websocket.WebSocketUpgradeHandler;
 import com.ning.http.multipart.StringPart;
 
 /**
@@ -117,6 +139,31 @@ public void testSimpleGetWithRegexPathParam() throws Exception {
         }
     }
     
+    @Test
+    public void testStaticPathPreferredOverPathParam() throws Exception {
+
+        server.handle(Method.GET, "/name/:name")
+              .with(200, "text/plain", "Hello :name");
+        server.handle(Method.GET, "/name/admin")
+              .with(200, "text/plain", "Hello administrator");
+        server.handle(Method.POST, "/name/admin", "text/plain")
+              .with(201, "text/plain", "created");
+       
+        Response resp = client.prepareGet("http://localhost:8080/name/admin").execute().get();
+        assertEquals("Hello administrator", resp.getResponseBody().trim());
+        
+        resp = client.prepareGet("http://localhost:8080/name/Tim").execute().get();
+        assertEquals("Hello Tim", resp.getResponseBody().trim());
+        
+        resp = client.preparePut("http://localhost:8080/name/admin").execute().get();
+        assertEquals(405, resp.getStatusCode());
+        
+        resp = client.preparePost("http://localhost:8080/name/admin")
+                .setHeader("Content-Type", "text/plain")
+                .setBody("admin").execute().get();
+        assertEquals(201, resp.getStatusCode());
+    }
+    
     @Test
     public void testSimplePutWithRequestBody() throws Exception {
 
@@ -363,6 +410,78 @@ public void testDelay() throws Exception {
         } catch (Exception e) {}
     }
     
+    @Test
+    public void testLatencyProfile() throws Exception {
+        
+        server.handle(Method.GET, "/search")
+              .with(200, "text/plain", "OK")
+              .withLatency(LatencyProfile.uniform(100, 200, TimeUnit.MILLISECONDS));
+        
+        for (int i = 0; i < 5; i++) {
+            long start = System.currentTimeMillis();
+            Response resp = client.prepareGet("http://localhost:8080/search").execute().get();
+            long elapsed = System.currentTimeMillis() - start;
+            
+            assertEquals("OK", resp.getResponseBody().trim());
+            assertTrue(elapsed >= 100);
+        }
+        
+        LatencyStats stats = server.latencyStats();
+        assertEquals(5, stats.getCount());
+        assertTrue(stats.getTargetPercentile(0, TimeUnit.MILLISECONDS) >= 100);
+        assertTrue(stats.getTargetPercentile(100, TimeUnit.MILLISECONDS) < 200);
+        assertTrue(stats.getActualPercentile(50, TimeUnit.MILLISECONDS) >= 
+                stats.getTargetPercentile(0, TimeUnit.MILLISECONDS));
+    }
+    
+    @Test
+    public void testEmpiricalLatencyProfile() throws Exception {
+        
+        String percentiles = 
+                "       Value     Percentile TotalCount 1/(1-Percentile)\n" + 
+                "\n" + 
+                "      10.000 0.000000000000          1           1.00\n" + 
+                "      20.000 0.500000000000         50           2.00\n" + 
+                "      40.000 1.000000000000        100\n" + 
+                "#[Mean    =       21.000, StdDeviation   =        7.000]\n";
+        LatencyProfile profile = LatencyProfile.empirical(
+                new ByteArrayInputStream(percentiles.getBytes()), TimeUnit.MILLISECONDS);
+        
+        for (int i = 0; i < 1000; i++) {
+            long latency = profile.nextNanos();
+            assertTrue(latency >= TimeUnit.MILLISECONDS.toNanos(10));
+            assertTrue(latency <= TimeUnit.MILLISECONDS.toNanos(40));
+        }
+    }
+    
+    @Test
+    public void testAsyncResponsesRunOnGivenExecutor() throws Exception {
+        
+        final List<String> threadNames = new ArrayList<String>();
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                threadNames.add("async-test-thread");
+                return new Thread(r, "async-test-thread");
+            }
+        });
+        
+        ServerFixture asyncServer = new ServerFixture(8081, executor);
+        asyncServer.start();
+        try {
+            asyncServer.handle(Method.GET, "/delayed")
+                       .with(200, "text/plain", "OK")
+                       .after(10, TimeUnit.MILLISECONDS);
+            
+            Response resp = client.prepareGet("http://localhost:8081/delayed")
+                                  .execute().get(5, TimeUnit.SECONDS);
+            assertEquals("OK", resp.getResponseBody().trim());
+            assertEquals(1, threadNames.size());
+        } finally {
+            asyncServer.stop();
+        }
+        assertTrue(executor.isShutdown());
+    }
+    
     @Test
     public void testEvery() throws Exception {
         
@@ -530,6 +649,34 @@ public void testUponRemovesSubscriberWhenSubscribingClientDisconnects() throws E
         assertFalse(thirdRequest.isBroadcast());
     }
     
+    @Test
+    public void testUponRemovesSubscriberAsSoonAsSubscribingClientDisconnects() throws Exception {
+        
+        server.handle(Method.GET, "/subscribe")
+              .with(200, "text/plain", "message: [request.body]")
+              .upon(Method.PUT, "/broadcast");
+        
+        AsyncHttpClient subscribingClient = new AsyncHttpClient();
+        ListenableFuture<Integer> f = subscribingClient
+              .prepareGet("http://localhost:8080/subscribe")
+              .execute(new AddToListOnBodyPartReceivedHandler(new ArrayList<String>()));
+        
+        /* need some time for the above request to complete */
+        Thread.sleep(200);
+        assertEquals(1, server.subscribers().size());
+        
+        f.done(null);
+        subscribingClient.close();
+        
+        /* no broadcast is made; the subscriber is removed on the disconnect alone */
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!server.subscribers().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(server.subscribers().isEmpty());
+        assertEquals(1, server.capturedRequests().size());
+    }
+    
     @Test
     public void testUponWithRequestHandler() throws Exception {
         
@@ -705,6 +852,64 @@ public void testUponWithMultipleScubscribers() throws Exception {
         }
     }
     
+    @Test
+    public void testUponSendsTheSameRenderedBodyToEverySubscriber() throws Exception {
+        
+        final AtomicInteger marshalled = new AtomicInteger();
+        server.marshal("application/json")
+              .with(new Marshaller() {
+                  public InputStream marshal(Object entity) {
+                      marshalled.incrementAndGet();
+                      return new JSONMarshaller().marshal(entity);
+                  }
+              });
+        
+        server.handle(Method.GET, "/subscribe")
+              .with(200, "application/json", new SimplePojo("shared"))
+              .upon(Method.PUT, "/broadcast");
+        
+        List<AsyncHttpClient> clients = new ArrayList<AsyncHttpClient>();
+        List<ListenableFuture<Integer>> futures = new ArrayList<ListenableFuture<Integer>>();
+        List<List<String>> broadcasts = new ArrayList<List<String>>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                AsyncHttpClient subscribingClient = new AsyncHttpClient();
+                List<String> received = new ArrayList<String>();
+                futures.add(subscribingClient.prepareGet("http://localhost:8080/subscribe")
+                        .execute(new AddToListOnBodyPartReceivedHandler(received)));
+                clients.add(subscribingClient);
+                broadcasts.add(received);
+            }
+            
+            /* need some time for the above requests to complete
+             * before the broadcast requests can start */
+            Thread.sleep(200);
+            
+            for (int i = 0; i < 2; i++) {
+                client.preparePut("http://localhost:8080/broadcast").execute().get();
+                
+                /* sometimes the last broadcast request is not
+                 * finished before f.done() is called */
+                Thread.sleep(200);
+            }
+            
+            for (ListenableFuture<Integer> f : futures) {
+                f.done(null);
+            }
+            for (List<String> received : broadcasts) {
+                assertEquals("[{\"val\":\"shared\"}, {\"val\":\"shared\"}]", 
+                        received.toString());
+            }
+            
+            /* the entity is marshalled once per broadcast, not once per subscriber */
+            assertEquals(2, marshalled.get());
+        } finally {
+            for (AsyncHttpClient subscribingClient : clients) {
+                subscribingClient.close();
+            }
+        }
+    }
+    
     @Test
     public void testUponWithTimeout() throws Exception {
         
@@ -773,6 +978,238 @@ public void testUponHandlesDifferentSubscriptions() throws Exception {
         }
     }
     
+    @Test
+    public void testUponDropsBroadcastsOverTheSubscriberLimit() throws Exception {
+        
+        server.handle(Method.GET, "/subscribe")
+              .with(200, "text/plain", "message: :message")
+              .upon(Method.GET, "/broadcast/:message")
+              .after(300, TimeUnit.MILLISECONDS)
+              .withMaxPendingBroadcasts(1, OverflowPolicy.DROP_NEWEST);
+        
+        final List<String> broadcasts = new ArrayList<String>();
+        ListenableFuture<Integer> f = client.prepareGet("http://localhost:8080/subscribe")
+              .execute(new AddToListOnBodyPartReceivedHandler(broadcasts));
+        
+        /* the subscription itself is delayed as well */
+        Thread.sleep(500);
+        
+        AsyncHttpClient otherClient = new AsyncHttpClient();
+        try {
+            /* the first is taken straight away, and sent after the delay */
+            otherClient.prepareGet("http://localhost:8080/broadcast/hello0").execute().get();
+            Thread.sleep(100);
+            
+            /* the second waits for the first, and the third is dropped */
+            otherClient.prepareGet("http://localhost:8080/broadcast/hello1").execute().get();
+            otherClient.prepareGet("http://localhost:8080/broadcast/hello2").execute().get();
+            
+            assertEquals(1, server.subscribers().size());
+            assertEquals("/subscribe", server.subscribers().get(0).getPath());
+            assertEquals(1, server.subscribers().get(0).getDroppedBroadcasts());
+            
+            /* wait for both delays to elapse */
+            Thread.sleep(800);
+        } finally {
+            otherClient.close();
+        }
+        
+        f.done(null);
+        assertEquals("[message: hello0, message: hello1]", broadcasts.toString());
+        assertEquals(1, server.droppedBroadcasts());
+    }
+    
+    @Test
+    public void testUponAsEventStream() throws Exception {
+        
+        server.handle(Method.GET, "/events")
+              .with(200, "text/plain", "message: :message")
+              .upon(Method.GET, "/broadcast/:message")
+              .asEventStream("greeting");
+        
+        /* broadcast before anyone has subscribed, to be replayed */
+        client.prepareGet("http://localhost:8080/broadcast/hello0").execute().get();
+        
+        final List<String> chunks = new ArrayList<String>();
+        ListenableFuture<Integer> f = client.prepareGet("http://localhost:8080/events")
+              .addHeader("Last-Event-ID", "0")
+              .execute(new AddToListOnBodyPartReceivedHandler(chunks));
+        
+        /* need some time for the above request to complete
+         * before the broadcast requests can start */
+        Thread.sleep(200);
+        
+        AsyncHttpClient otherClient = new AsyncHttpClient();
+        try {
+            otherClient.prepareGet("http://localhost:8080/broadcast/hello1").execute().get();
+            
+            /* sometimes the last broadcast request is not
+             * finished before f.done() is called */
+            Thread.sleep(200);
+        } finally {
+            otherClient.close();
+        }
+        
+        f.done(null);
+        String stream = chunks.toString();
+        assertTrue(stream.contains(
+                "id: 1\nevent: greeting\ndata: message: hello0"));
+        assertTrue(stream.contains(
+                "id: 2\nevent: greeting\ndata: message: hello1"));
+        assertTrue(stream.indexOf("hello0") < stream.indexOf("hello1"));
+    }
+    
+    @Test
+    public void testWebSocketHandler() throws Exception {
+        
+        server.handleWebSocket("/chat/:room")
+              .onConnect("welcome")
+              .onMessage("join (\\w+)", "hello $1")
+              .upon(Method.GET, "/rooms/:room", "posted to :room");
+        
+        final List<String> messages = new CopyOnWriteArrayList<String>();
+        WebSocket socket = client.prepareGet("ws://localhost:8080/chat/a")
+              .execute(new WebSocketUpgradeHandler.Builder()
+                  .addWebSocketListener(new WebSocketTextListener() {
+                      public void onMessage(String message) {
+                          messages.add(message);
+                      }
+                      public void onFragment(String fragment, boolean last) {}
+                      public void onOpen(WebSocket websocket) {}
+                      public void onClose(WebSocket websocket) {}
+                      public void onError(Throwable t) {}
+                  }).build()).get();
+        
+        try {
+            socket.sendTextMessage("join bob");
+            
+            /* need some time for the reply before the broadcast */
+            Thread.sleep(200);
+            
+            AsyncHttpClient otherClient = new AsyncHttpClient();
+            try {
+                otherClient.prepareGet("http://localhost:8080/rooms/42").execute().get();
+                Thread.sleep(200);
+            } finally {
+                otherClient.close();
+            }
+        } finally {
+            socket.close();
+        }
+        
+        assertEquals("[welcome, hello bob, posted to 42]", messages.toString());
+        
+        CapturedFrame frame = server.frame();
+        assertEquals("/chat/a", frame.getPath());
+        assertEquals("join bob", frame.getText());
+    }
+    
+    @Test
+    public void testWebSocketAndHttpHandlersWaitUponTheSameRequest() throws Exception {
+        
+        server.handle(Method.GET, "/subscribe")
+              .with(200, "text/plain", "message: :room")
+              .upon(Method.GET, "/rooms/:room");
+        
+        server.handleWebSocket("/chat/:room")
+              .upon(Method.GET, "/rooms/:room", "posted to :room");
+        
+        final List<String> broadcasts = new ArrayList<String>();
+        ListenableFuture<Integer> f = client.prepareGet("http://localhost:8080/subscribe")
+              .execute(new AddToListOnBodyPartReceivedHandler(broadcasts));
+        
+        final List<String> messages = new CopyOnWriteArrayList<String>();
+        AsyncHttpClient socketClient = new AsyncHttpClient();
+        WebSocket socket = socketClient.prepareGet("ws://localhost:8080/chat/a")
+              .execute(new WebSocketUpgradeHandler.Builder()
+                  .addWebSocketListener(new WebSocketTextListener() {
+                      public void onMessage(String message) {
+                          messages.add(message);
+                      }
+                      public void onFragment(String fragment, boolean last) {}
+                      public void onOpen(WebSocket websocket) {}
+                      public void onClose(WebSocket websocket) {}
+                      public void onError(Throwable t) {}
+                  }).build()).get();
+        
+        try {
+            /* need some time for the subscription before the broadcast */
+            Thread.sleep(200);
+            
+            AsyncHttpClient otherClient = new AsyncHttpClient();
+            try {
+                otherClient.prepareGet("http://localhost:8080/rooms/42").execute().get();
+                Thread.sleep(200);
+            } finally {
+                otherClient.close();
+            }
+        } finally {
+            socket.close();
+            socketClient.close();
+        }
+        
+        f.done(null);
+        assertEquals("[message: 42]", broadcasts.toString());
+        assertEquals("[posted to 42]", messages.toString());
+    }
+    
+    @Test
+    public void testCapturedFramesAreLimited() throws Exception {
+        
+        server.handleWebSocket("/chat/:room").echo();
+        server.setMaxCapturedRequests(2);
+        
+        WebSocket socket = client.prepareGet("ws://localhost:8080/chat/a")
+              .execute(new WebSocketUpgradeHandler.Builder()
+                  .addWebSocketListener(new WebSocketTextListener() {
+                      public void onMessage(String message) {}
+                      public void onFragment(String fragment, boolean last) {}
+                      public void onOpen(WebSocket websocket) {}
+                      public void onClose(WebSocket websocket) {}
+                      public void onError(Throwable t) {}
+                  }).build()).get();
+        
+        try {
+            for (int i = 1; i <= 3; i++) {
+                socket.sendTextMessage("message " + i);
+            }
+            /* need some time for the frames to be received */
+            Thread.sleep(200);
+        } finally {
+            socket.close();
+        }
+        
+        assertEquals(2, server.capturedFrames().size());
+        assertEquals(1, server.droppedFrames());
+        assertEquals("message 2", server.frame().getText());
+        assertEquals("message 3", server.frame().getText());
+    }
+    
+    @Test
+    public void testStreamingHandler() throws Exception {
+        
+        server.handle(Method.GET, "/export/:count")
+              .withStream(200, "application/x-ndjson", new StreamingHttpRequestHandler() {
+                  public void handle(HttpRequest request, ResponseSink sink) throws IOException {
+                      
+                      int count = Integer.parseInt(request.getPathParameter("count"));
+                      for (int i = 0; i < count; i++) {
+                          sink.write(ByteBuffer.wrap(("{\"id\":" + i + "}\n").getBytes()));
+                      }
+                  }
+              });
+        
+        Response resp = client.prepareGet("http://localhost:8080/export/10000")
+                              .execute().get();
+        
+        assertEquals(200, resp.getStatusCode());
+        assertEquals("application/x-ndjson", resp.getContentType());
+        assertEquals("chunked", resp.getHeader("Transfer-Encoding"));
+        String[] lines = resp.getResponseBody().split("\n");
+        assertEquals(10000, lines.length);
+        assertEquals("{\"id\":9999}", lines[9999]);
+    }
+    
     @Test
     public void recordsRequests() throws Exception {
         
@@ -968,6 +1405,149 @@ public void testSettingMaxCapturedRequestsLimitsStoredCapturedRequests() throws
         }
     }
     
+    @Test
+    public void testCapturedRequestsOverwrittenWhenLimitReachedAreCounted() throws Exception {
+        
+        server.handle(Method.GET, "/:id").with(200, "text/plain", ":id");
+        server.setMaxCapturedRequests(2);
+        
+        AsyncHttpClient client = new AsyncHttpClient();
+        try {
+            for (int i = 1; i <= 5; i++) {
+                client.prepareGet("http://localhost:8080/" + i).execute().get();
+            }
+            
+            assertEquals(3, server.droppedRequests());
+            
+            Collection<CapturedRequest> captured = server.capturedRequests();
+            assertEquals(2, captured.size());
+            Iterator<CapturedRequest> it = captured.iterator();
+            assertEquals("GET /4 HTTP/1.1", it.next().getRequestLine());
+            assertEquals("GET /5 HTTP/1.1", it.next().getRequestLine());
+            
+            assertEquals("GET /4 HTTP/1.1", server.request().getRequestLine());
+            client.prepareGet("http://localhost:8080/6").execute().get();
+            assertEquals(3, server.droppedRequests());
+            assertEquals("GET /5 HTTP/1.1", server.request().getRequestLine());
+            assertEquals("GET /6 HTTP/1.1", server.request().getRequestLine());
+            assertNull(server.request());
+        } finally {
+            client.close();
+        }
+    }
+    
+    @Test
+    public void testClearingCapturedRequests() throws Exception {
+        
+        server.handle(Method.GET, "/:id").with(200, "text/plain", ":id");
+        
+        client.prepareGet("http://localhost:8080/1").execute().get();
+        client.prepareGet("http://localhost:8080/2").execute().get();
+        assertEquals(2, server.capturedRequests().size());
+        
+        server.clearCapturedRequests();
+        assertTrue(server.capturedRequests().isEmpty());
+        assertNull(server.request());
+        assertEquals(0, server.droppedRequests());
+        
+        client.prepareGet("http://localhost:8080/3").execute().get();
+        assertEquals("GET /3 HTTP/1.1", server.request().getRequestLine());
+    }
+    
+    @Test
+    public void testCapturedRequestsCanBeWrittenToAJournal() throws Exception {
+        
+        server.handle(Method.GET, "/:id").with(200, "text/plain", ":id");
+        server.handle(Method.PUT, "/:id").with(200, "text/plain", ":id");
+        
+        File journal = File.createTempFile("fixd-journal", ".bin");
+        journal.deleteOnExit();
+        server.setCaptureJournal(journal);
+        
+        AsyncHttpClient client = new AsyncHttpClient();
+        try {
+            client.prepareGet("http://localhost:8080/1").execute().get();
+            client.preparePut("http://localhost:8080/1").setBody("one").execute().get();
+            client.prepareGet("http://localhost:8080/2").execute().get();
+            
+            assertEquals(3, server.capturedRequests().size());
+            
+            Collection<CapturedRequest> puts = server.capturedRequests(Method.PUT, "/1");
+            assertEquals(1, puts.size());
+            assertEquals("one", puts.iterator().next().getBody("UTF-8"));
+            
+            assertEquals("GET /1 HTTP/1.1", server.request().getRequestLine());
+            assertEquals("PUT /1 HTTP/1.1", server.request().getRequestLine());
+            assertEquals("GET /2 HTTP/1.1", server.request().getRequestLine());
+            assertNull(server.request());
+            assertTrue(journal.length() > 0);
+        } finally {
+            client.close();
+        }
+    }
+    
+    @Test
+    public void testQueryingCapturedRequests() throws Exception {
+        
+        server.handle(Method.GET, "/orders/:id").with(200, "text/plain", ":id");
+        server.handle(Method.POST, "/orders/:id").with(200, "text/plain", ":id");
+        
+        long start = System.currentTimeMillis();
+        AsyncHttpClient client = new AsyncHttpClient();
+        try {
+            client.prepareGet("http://localhost:8080/orders/1").execute().get();
+            client.preparePost("http://localhost:8080/orders/1")
+                  .addHeader("X-Trace", "abc").setBody("one").execute().get();
+            client.preparePost("http://localhost:8080/orders/2").setBody("two").execute().get();
+            client.prepareGet("http://localhost:8080/unknown").execute().get();
+            
+            assertEquals(2, server.query().method(Method.POST).route("/orders/:id").count());
+            
+            CapturedRequest traced = server.query().method(Method.POST).header("X-Trace", "abc").first();
+            assertEquals("/orders/1", traced.getPath());
+            assertEquals("/orders/:id", traced.getRoute());
+            
+            assertEquals("/orders/2", server.query().method(Method.POST).last().getPath());
+            assertEquals(1, server.query().path("/unknown").count());
+            assertNull(server.query().path("/unknown").first().getRoute());
+            assertEquals(4, server.query().since(start).count());
+            assertEquals(0, server.query().until(start).count());
+            assertEquals(Integer.valueOf(3), server.query().countByRoute().get("/orders/:id"));
+            assertEquals(Integer.valueOf(2), server.query().countByMethod().get("GET"));
+            assertEquals(6, server.query().method(Method.POST).totalBodySize());
+            
+            server.request();
+            assertEquals(3, server.query().count());
+        } finally {
+            client.close();
+        }
+    }
+    
+    @Test
+    public void testAwaitingARequest() throws Exception {
+        
+        server.handle(Method.GET, "/orders/:id").with(200, "text/plain", ":id");
+        
+        Future<CapturedRequest> second = server.awaitRequestAsync(
+                server.query().path("/orders/2"));
+        assertFalse(second.isDone());
+        
+        final AsyncHttpClient client = new AsyncHttpClient();
+        try {
+            client.prepareGet("http://localhost:8080/orders/1").execute().get();
+            assertEquals("/orders/1", server.awaitRequest(
+                    server.query().path("/orders/1"), 5, TimeUnit.SECONDS).getPath());
+            
+            client.prepareGet("http://localhost:8080/orders/2").execute();
+            assertEquals("/orders/2", second.get(5, TimeUnit.SECONDS).getPath());
+            
+            assertNull(server.awaitRequest(server.query().path("/orders/3"), 
+                    100, TimeUnit.MILLISECONDS));
+        } finally {
+            client.close();
+        }
+    }
+    
     @Test
     public void testDifferentContentTypesAreHandledDifferently() throws Exception {
         
@@ -1384,6 +1964,244 @@ public void testHandlesUnencodedPlusWithNamedParams() throws Exception {
         assertEquals("foo+bar", resp.getResponseBody().trim());
     }
     
+    @Test
+    public void testStaticBodySentWithContentLength() throws Exception {
+        
+        server.handle(Method.GET, "/")
+              .with(200, "text/plain", "Hello");
+        
+        Response resp = client.prepareGet("http://localhost:8080/").execute().get();
+        
+        assertEquals("Hello", resp.getResponseBody().trim());
+        assertEquals(String.valueOf(resp.getResponseBodyAsBytes().length), 
+                resp.getHeader("Content-Length"));
+    }
+    
+    @Test
+    public void testFileBody() throws Exception {
+        
+        File file = File.createTempFile("fixd", ".txt");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("Hello from a file".getBytes());
+        out.close();
+        
+        server.handle(Method.GET, "/file")
+              .withFile(file, "text/plain");
+        
+        Response resp = client.prepareGet("http://localhost:8080/file").execute().get();
+        
+        assertEquals(200, resp.getStatusCode());
+        assertEquals("Hello from a file", resp.getResponseBody());
+        assertEquals("17", resp.getHeader("Content-Length"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testFileBodyRequiresAReadableFile() throws Exception {
+        
+        File dir = File.createTempFile("fixd", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        
+        server.handle(Method.GET, "/file")
+              .withFile(dir, "text/plain");
+    }
+    
+    @Test
+    public void testGeneratedBody() throws Exception {
+        
+        server.handle(Method.GET, "/pattern")
+              .withGeneratedBody(100000, "0123456789", "text/plain");
+        
+        server.handle(Method.GET, "/random")
+              .withGeneratedBody(100000, 42L, "application/octet-stream");
+        
+        Response resp = client.prepareGet("http://localhost:8080/pattern").execute().get();
+        
+        assertEquals(200, resp.getStatusCode());
+        assertEquals("100000", resp.getHeader("Content-Length"));
+        String body = resp.getResponseBody();
+        assertEquals(100000, body.length());
+        assertTrue(body.startsWith("0123456789012"));
+        assertTrue(body.endsWith("56789"));
+        
+        byte[] first = client.prepareGet("http://localhost:8080/random")
+                .execute().get().getResponseBodyAsBytes();
+        byte[] second = client.prepareGet("http://localhost:8080/random")
+                .execute().get().getResponseBodyAsBytes();
+        assertEquals(100000, first.length);
+        assertTrue(Arrays.equals(first, second));
+        
+        resp = client.prepareGet("http://localhost:8080/pattern")
+                .addHeader("Range", "bytes=15-19")
+                .execute().get();
+        
+        assertEquals(206, resp.getStatusCode());
+        assertEquals("56789", resp.getResponseBody());
+    }
+    
+    @Test
+    public void testGeneratedBodyWithMaxThroughput() throws Exception {
+        
+        server.handle(Method.GET, "/slow")
+              .withGeneratedBody(200000, "x", "text/plain")
+              .withMaxThroughput(1000000);
+        
+        long start = System.currentTimeMillis();
+        Response resp = client.prepareGet("http://localhost:8080/slow").execute().get();
+        long elapsed = System.currentTimeMillis() - start;
+        
+        assertEquals(200000, resp.getResponseBody().length());
+        assertTrue(elapsed >= 150);
+    }
+    
+    @Test
+    public void testTimeToFirstByte() throws Exception {
+        
+        server.handle(Method.GET, "/name/:name")
+              .with(200, "text/plain", "Hello :name")
+              .withTimeToFirstByte(200, TimeUnit.MILLISECONDS)
+              .withChunkJitter(10, TimeUnit.MILLISECONDS);
+        
+        long start = System.currentTimeMillis();
+        Response resp = client.prepareGet("http://localhost:8080/name/Tim").execute().get();
+        long elapsed = System.currentTimeMillis() - start;
+        
+        assertEquals("Hello Tim", resp.getResponseBody().trim());
+        assertTrue(elapsed >= 200);
+    }
+    
+    @Test
+    public void testFixtureMaxThroughput() throws Exception {
+        
+        server.setMaxThroughput(100000);
+        
+        server.handle(Method.GET, "/throttled")
+              .withGeneratedBody(50000, "x", "text/plain");
+        
+        server.handle(Method.GET, "/unthrottled")
+              .withGeneratedBody(50000, "x", "text/plain")
+              .withMaxThroughput(100000000);
+        
+        long start = System.currentTimeMillis();
+        Response resp = client.prepareGet("http://localhost:8080/throttled").execute().get();
+        long elapsed = System.currentTimeMillis() - start;
+        
+        assertEquals(50000, resp.getResponseBody().length());
+        assertTrue(elapsed >= 400);
+        
+        start = System.currentTimeMillis();
+        resp = client.prepareGet("http://localhost:8080/unthrottled").execute().get();
+        elapsed = System.currentTimeMillis() - start;
+        
+        assertEquals(50000, resp.getResponseBody().length());
+        assertTrue(elapsed < 400);
+    }
+    
+    @Test
+    public void testFileBodyWithCustomHandler() throws Exception {
+        
+        final File file = File.createTempFile("fixd", ".txt");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("Hello from a file".getBytes());
+        out.close();
+        
+        server.handle(Method.GET, "/file")
+              .with(new HttpRequestHandler() {
+                  public void handle(HttpRequest request, HttpResponse response) {
+                      response.setStatusCode(200);
+                      response.setContentType("text/plain");
+                      response.setBody(file);
+                  }
+              });
+        
+        Response resp = client.prepareGet("http://localhost:8080/file").execute().get();
+        
+        assertEquals("Hello from a file", resp.getResponseBody());
+    }
+    
+    @Test
+    public void testRangeRequestForStaticBody() throws Exception {
+        
+        server.handle(Method.GET, "/")
+              .with(200, "text/plain", "0123456789");
+        
+        Response resp = client.prepareGet("http://localhost:8080/")
+                .addHeader("Range", "bytes=2-5")
+                .execute().get();
+        
+        assertEquals(206, resp.getStatusCode());
+        assertEquals("2345", resp.getResponseBody());
+        assertTrue(resp.getHeader("Content-Range").startsWith("bytes 2-5/"));
+    }
+    
+    @Test
+    public void testMultipleRangeRequestForStaticBody() throws Exception {
+        
+        server.handle(Method.GET, "/")
+              .with(200, "text/plain", "0123456789");
+        
+        Response resp = client.prepareGet("http://localhost:8080/")
+                .addHeader("Range", "bytes=0-1,8-9")
+                .execute().get();
+        
+        assertEquals(206, resp.getStatusCode());
+        assertTrue(resp.getContentType().startsWith("multipart/byteranges"));
+        String body = resp.getResponseBody();
+        assertTrue(body.contains("Content-Range: bytes 0-1/"));
+        assertTrue(body.contains("Content-Range: bytes 8-9/"));
+    }
+    
+    @Test
+    public void testUnsatisfiableRangeRequest() throws Exception {
+        
+        server.handle(Method.GET, "/")
+              .with(200, "text/plain", "0123456789");
+        
+        Response resp = client.prepareGet("http://localhost:8080/")
+                .addHeader("Range", "bytes=100-200")
+                .execute().get();
+        
+        assertEquals(416, resp.getStatusCode());
+    }
+    
+    @Test
+    public void testConditionalRequestWithETag() throws Exception {
+        
+        server.handle(Method.GET, "/")
+              .with(200, "text/plain", "Hello");
+        
+        Response resp = client.prepareGet("http://localhost:8080/").execute().get();
+        String eTag = resp.getHeader("ETag");
+        assertNotNull(eTag);
+        
+        resp = client.prepareGet("http://localhost:8080/")
+                .addHeader("If-None-Match", eTag)
+                .execute().get();
+        
+        assertEquals(304, resp.getStatusCode());
+        assertEquals("", resp.getResponseBody());
+    }
+    
+    @Test
+    public void testHandlerHeadersAndDateHeaders() throws Exception {
+        
+        server.handle(Method.GET, "/headers")
+              .with(200, "text/plain", "headers")
+              .withHeader("X-Custom", "one")
+              .withHeader("X-Custom", "one")
+              .withHeader("X-Other", "two");
+        
+        Response resp = client.prepareGet("http://localhost:8080/headers").execute().get();
+        
+        assertEquals(1, resp.getHeaders("X-Custom").size());
+        assertEquals("two", resp.getHeader("X-Other"));
+        assertTrue(resp.getHeader("Date").endsWith(" GMT"));
+        assertTrue(resp.getHeader("Last-Modified").endsWith(" GMT"));
+    }
+    
     @Test
     public void testGetPort() {
         
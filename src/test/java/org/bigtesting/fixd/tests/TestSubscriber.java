@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 BigTesting.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bigtesting.fixd.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.bigtesting.fixd.OverflowPolicy;
+import org.bigtesting.fixd.core.RequestHandlerImpl;
+import org.bigtesting.fixd.core.async.Broadcast;
+import org.bigtesting.fixd.core.async.Subscriber;
+import org.junit.Test;
+
+/**
+ *
+ * @author Luis Antunes
+ */
+public class TestSubscriber {
+
+    private static final int THREADS = 8;
+
+    private static final int BROADCASTS_PER_THREAD = 100000;
+
+    @Test
+    public void coalescesConcurrentBroadcastsToTheLatest() throws Exception {
+
+        RequestHandlerImpl handler = new RequestHandlerImpl(null);
+        handler.withMaxPendingBroadcasts(1, OverflowPolicy.COALESCE);
+        final Subscriber subscriber = new Subscriber(handler);
+
+        final List<Broadcast> last = new ArrayList<Broadcast>();
+        broadcastConcurrently(subscriber, last);
+
+        int total = THREADS * BROADCASTS_PER_THREAD;
+        assertEquals(1, subscriber.getPendingBroadcasts());
+        assertEquals(total - 1, subscriber.getDroppedBroadcasts());
+
+        /* the one left is the last broadcast added by one of the threads */
+        Broadcast remaining = subscriber.getNextBroadcast();
+        assertNotNull(remaining);
+        assertTrue(last.contains(remaining));
+        assertNull(subscriber.getNextBroadcast());
+    }
+
+    @Test
+    public void keepsTheLatestBroadcastsWhenDroppingTheOldest() throws Exception {
+
+        RequestHandlerImpl handler = new RequestHandlerImpl(null);
+        handler.withMaxPendingBroadcasts(3, OverflowPolicy.DROP_OLDEST);
+        final Subscriber subscriber = new Subscriber(handler);
+
+        broadcastConcurrently(subscriber, new ArrayList<Broadcast>());
+
+        int total = THREADS * BROADCASTS_PER_THREAD;
+        assertEquals(3, subscriber.getPendingBroadcasts());
+        assertEquals(total - 3, subscriber.getDroppedBroadcasts());
+    }
+
+    private void broadcastConcurrently(final Subscriber subscriber,
+            final List<Broadcast> last) throws InterruptedException {
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+
+            final Broadcast[] broadcasts = new Broadcast[BROADCASTS_PER_THREAD];
+            for (int j = 0; j < broadcasts.length; j++) {
+                broadcasts[j] = new Broadcast(null, null, null, null);
+            }
+            last.add(broadcasts[broadcasts.length - 1]);
+
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (Broadcast broadcast : broadcasts) {
+                        subscriber.addNextBroadcast(broadcast);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}